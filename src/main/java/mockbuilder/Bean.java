@@ -0,0 +1,203 @@
+package mockbuilder;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bean.
+ * <p>
+ * Concrete type instantiated and populated directly instead of being mocked: class with no-arg
+ * constructor populated through setters or fields, or record created by its canonical constructor.
+ *
+ * @author Tomasz Kisiel
+ */
+final class Bean {
+
+	private static final ConcurrentMap<Class<?>, Object> BEANS = new ConcurrentHashMap<Class<?>, Object>();
+
+	/** marks types which cannot be populated. */
+	private static final Object NONE = new Object();
+
+	private final Class<?> type;
+
+	private final Constructor<?> constructor;
+
+	/** record component names in canonical constructor order, <code>null</code> for classes. */
+	private final List<String> components;
+
+	private final ConcurrentMap<String, Property> properties = new ConcurrentHashMap<String, Property>();
+
+
+	private Bean(final Class<?> type, final Constructor<?> constructor, final List<String> components) {
+		this.type = type;
+		this.constructor = constructor;
+		this.components = components;
+	}
+
+	/**
+	 * @param type type.
+	 * @return bean of given type, <code>null</code> when its instances cannot be populated directly.
+	 */
+	static Bean of(final Class<?> type) {
+		Object bean = BEANS.get(type);
+		if (bean == null) {
+			bean = newBean(type);
+			BEANS.putIfAbsent(type, bean == null ? NONE : bean);
+		}
+		return bean == NONE ? null : (Bean) bean;
+	}
+
+	private static Bean newBean(final Class<?> type) {
+		if (type.isInterface() || type.isPrimitive() || type.isArray() || type.isEnum() || Object.class.equals(type)
+				|| Modifier.isAbstract(type.getModifiers()) || Utils.converter(type) != Utils.NONE
+				|| type.getName().contains("$$")) {
+			return null;
+		}
+		try {
+			Object[] recordComponents = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+			if (recordComponents != null) {
+				List<String> components = new ArrayList<String>(recordComponents.length);
+				Class<?>[] types = new Class<?>[recordComponents.length];
+				for (int i = 0; i < types.length; i++) {
+					Object component = recordComponents[i];
+					components.add((String) component.getClass().getMethod("getName").invoke(component));
+					types[i] = (Class<?>) component.getClass().getMethod("getType").invoke(component);
+				}
+				return new Bean(type, accessible(type.getDeclaredConstructor(types)), components);
+			}
+		} catch (NoSuchMethodException e) {
+			// no records before Java 16
+		} catch (Exception e) {
+			return null;
+		}
+		try {
+			return new Bean(type, accessible(type.getDeclaredConstructor()), null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static Constructor<?> accessible(final Constructor<?> constructor) {
+		constructor.setAccessible(true);
+		return constructor;
+	}
+
+	/**
+	 * @return whether instances are created with all property values at once.
+	 */
+	boolean isRecord() {
+		return this.components != null;
+	}
+
+	/**
+	 * @return new instance, record with default component values.
+	 * @throws Exception .
+	 */
+	Object newInstance() throws Exception {
+		return newInstance(isRecord() ? new Object[this.components.size()] : new Object[0]);
+	}
+
+	/**
+	 * @param args record component values, <code>null</code>s of primitive components are replaced by defaults.
+	 * @return new instance.
+	 * @throws Exception .
+	 */
+	Object newInstance(final Object[] args) throws Exception {
+		Class<?>[] types = this.constructor.getParameterTypes();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] == null && types[i].isPrimitive()) {
+				args[i] = Array.get(Array.newInstance(types[i], 1), 0);
+			}
+		}
+		return this.constructor.newInstance(args);
+	}
+
+	/**
+	 * @return number of record components.
+	 */
+	int components() {
+		return this.components.size();
+	}
+
+	/**
+	 * @param name property name.
+	 * @return property.
+	 * @throws Exception when there is no such property.
+	 */
+	Property property(final String name) throws Exception {
+		Property property = this.properties.get(name);
+		if (property == null) {
+			property = isRecord() ? component(name) : writable(name);
+			this.properties.put(name, property);
+		}
+		return property;
+	}
+
+	private Property component(final String name) throws Exception {
+		int index = this.components.indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("Cannot find component " + name + " of " + this.type.getName());
+		}
+		return new Property(this.constructor.getParameterTypes()[index], index, null, null);
+	}
+
+	private Property writable(final String name) throws Exception {
+		Class<?> propertyType = null;
+		try {
+			propertyType = Utils.getter(this.type, name).getReturnType();
+		} catch (NoSuchMethodException e) {}
+		String setterName = "set" + name.substring(0, 1).toUpperCase() + name.substring(1);
+		for (Method method : this.type.getMethods()) {
+			if (setterName.equals(method.getName()) && method.getParameterTypes().length == 1
+					&& (propertyType == null || method.getParameterTypes()[0].equals(propertyType))) {
+				return new Property(method.getParameterTypes()[0], -1, method, null);
+			}
+		}
+		for (Class<?> cls = this.type; cls != null; cls = cls.getSuperclass()) {
+			try {
+				Field field = cls.getDeclaredField(name);
+				if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+					field.setAccessible(true);
+					return new Property(propertyType != null ? propertyType : field.getType(), -1, null, field);
+				}
+			} catch (NoSuchFieldException e) {}
+		}
+		throw new IllegalArgumentException("Cannot set property " + name + " of " + this.type.getName());
+	}
+
+	/**
+	 * Property.
+	 * <p>
+	 * Setter, field or record component.
+	 */
+	static final class Property {
+		final Class<?> type;
+		/** position of record component, -1 for properties of classes. */
+		final int index;
+		private final Method setter;
+		private final Field field;
+		Property(final Class<?> type, final int index, final Method setter, final Field field) {
+			this.type = type;
+			this.index = index;
+			this.setter = setter;
+			this.field = field;
+		}
+		void set(final Object bean, final Object value) throws Exception {
+			if (this.setter != null) {
+				this.setter.invoke(bean, value);
+			} else if (this.field != null) {
+				this.field.set(bean, value);
+			} else {
+				throw new IllegalStateException("Record component cannot be set.");
+			}
+		}
+	}
+
+}
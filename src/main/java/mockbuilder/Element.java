@@ -1,66 +1,230 @@
-package mockbuilder;
-
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Element.
- *
- * @author Tomasz Kisiel
- */
-final class Element {
-
-	final String name;
-
-	final String key;
-
-	final List<Element> children = new ArrayList<Element>();
-
-	Class<?> type;
-
-	String index;
-
-	String hint;
-
-	boolean isArray;
-
-	String value;
-
-	Class<?>[] extraInterfaces;
-
-
-	/**
-	 * @param name element name.
-	 * @param upstreamKey key combining all parent elements.
-	 */
-	Element(final String name, final String upstreamKey) {
-		this.name = Utils.strip$$(name);
-		this.key = Utils.join(upstreamKey, name);
-	}
-
-	@Override
-	public boolean equals(final Object obj) {
-		if (this == obj) {
-			return true;
-		}
-		if (obj == null || !(obj instanceof Element)) {
-			return false;
-		}
-		return this.name.equals(((Element) obj).name);
-	}
-
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public String toString() {
-		return "E["
-			+ "name=" + this.name + ", "
-			+ "key=" + this.key
-			+ (this.type != null ? ", type=" + this.type : "")
-			+ (this.index != null ? ", index=" + this.index : "")
-			+ (this.hint != null ? ", hint=" + this.hint : "")
-			+ "]";
-	}
-
-}
+package mockbuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Element.
+ *
+ * @author Tomasz Kisiel
+ */
+final class Element {
+
+	final String name;
+
+	final Element parent;
+
+	List<Element> children = Collections.emptyList();
+
+	Class<?> type;
+
+	/** type arguments of collection type declared by getter, <code>null</code> if unknown. */
+	Class<?>[] typeArguments;
+
+	String index;
+
+	int from = -1;
+
+	int to = -1;
+
+	String hint;
+
+	boolean isArray;
+
+	String value;
+
+	Class<?>[] extraInterfaces;
+
+	String alias;
+
+	String reference;
+
+
+	/**
+	 * @param name element name.
+	 * @param parent parent element, <code>null</code> for root.
+	 */
+	Element(final String name, final Element parent) {
+		this.name = Utils.strip$$(name);
+		this.parent = parent;
+	}
+
+	/**
+	 * @param child child element.
+	 */
+	void add(final Element child) {
+		if (this.children.isEmpty()) {
+			this.children = new ArrayList<Element>(2);
+		}
+		this.children.add(child);
+	}
+
+	/**
+	 * @param parent parent of copy.
+	 * @return copy of this element under given parent, sharing children with this element.
+	 */
+	Element copy(final Element parent) {
+		Element copy = new Element(this.name, parent);
+		copy.children = this.children.isEmpty() ? this.children : new ArrayList<Element>(this.children);
+		copy.type = this.type;
+		copy.typeArguments = this.typeArguments;
+		copy.index = this.index;
+		copy.from = this.from;
+		copy.to = this.to;
+		copy.hint = this.hint;
+		copy.isArray = this.isArray;
+		copy.value = this.value;
+		copy.extraInterfaces = this.extraInterfaces;
+		copy.alias = this.alias;
+		copy.reference = this.reference;
+		return copy;
+	}
+
+	/**
+	 * @return copy of subtree of this element, sharing no elements with it.
+	 */
+	Element copyTree() {
+		Element root = copy(null);
+		Deque<Element> stack = new ArrayDeque<Element>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Element elem = stack.pop();
+			for (int i = 0; i < elem.children.size(); i++) {
+				Element child = elem.children.get(i).copy(elem);
+				elem.children.set(i, child);
+				stack.push(child);
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * @return key combining names of all parent elements, computed on each call.
+	 */
+	String key() {
+		List<String> names = new ArrayList<String>();
+		for (Element elem = this; elem != null; elem = elem.parent) {
+			// collection elements are named after their collection already
+			if (elem == this || !elem.isArray) {
+				names.add(elem.name);
+			}
+		}
+		StringBuilder key = new StringBuilder();
+		for (int i = names.size() - 1; i >= 0; i--) {
+			key.append(names.get(i)).append(i > 0 ? "." : "");
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param root root of subtree.
+	 * @return all elements of given subtree, each one after all its children.
+	 */
+	static List<Element> postOrder(final Element root) {
+		List<Element> elements = new ArrayList<Element>();
+		Deque<Element> stack = new ArrayDeque<Element>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Element elem = stack.pop();
+			elements.add(elem);
+			for (Element child : elem.children) {
+				stack.push(child);
+			}
+		}
+		Collections.reverse(elements);
+		return elements;
+	}
+
+	/**
+	 * @return whether element stands for range of indexes (<code>[from..to]</code>),
+	 * 		or all indexes of collection (<code>[*]</code>, <code>to</code> is -1).
+	 */
+	boolean isRange() {
+		return this.from >= 0;
+	}
+
+	/**
+	 * Elements are equal when their whole subtrees are equal.
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj == null || !(obj instanceof Element)) {
+			return false;
+		}
+		Deque<Element> stack = new ArrayDeque<Element>();
+		stack.push(this);
+		stack.push((Element) obj);
+		while (!stack.isEmpty()) {
+			Element other = stack.pop();
+			Element elem = stack.pop();
+			if (elem == other) {
+				continue;
+			}
+			if (!elem.name.equals(other.name)
+					|| !same(elem.index, other.index)
+					|| !same(elem.hint, other.hint)
+					|| !same(elem.value, other.value)
+					|| !same(elem.alias, other.alias)
+					|| !same(elem.reference, other.reference)
+					|| elem.from != other.from
+					|| elem.to != other.to
+					|| elem.isArray != other.isArray
+					|| elem.children.size() != other.children.size()) {
+				return false;
+			}
+			for (int i = 0; i < elem.children.size(); i++) {
+				stack.push(elem.children.get(i));
+				stack.push(other.children.get(i));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		Map<Element, Integer> hashes = new IdentityHashMap<Element, Integer>();
+		int hash = 0;
+		for (Element elem : postOrder(this)) {
+			int children = 1;
+			for (Element child : elem.children) {
+				children = 31 * children + hashes.get(child);
+			}
+			hash = elem.name.hashCode();
+			hash = 31 * hash + (elem.index == null ? 0 : elem.index.hashCode());
+			hash = 31 * hash + (elem.hint == null ? 0 : elem.hint.hashCode());
+			hash = 31 * hash + (elem.value == null ? 0 : elem.value.hashCode());
+			hash = 31 * hash + elem.from;
+			hash = 31 * hash + elem.to;
+			hash = 31 * hash + children;
+			hashes.put(elem, hash);
+		}
+		return hash;
+	}
+
+	private static boolean same(final Object o1, final Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "E["
+			+ "name=" + this.name + ", "
+			+ "key=" + key()
+			+ (this.type != null ? ", type=" + this.type : "")
+			+ (this.index != null ? ", index=" + this.index : "")
+			+ (this.hint != null ? ", hint=" + this.hint : "")
+			+ "]";
+	}
+
+}
@@ -0,0 +1,37 @@
+package mockbuilder;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Fixture.
+ * <p>
+ * Settings checked and turned into factory method at compile time by {@link FixtureProcessor}.
+ * Factory methods of all fixtures of annotated type are generated into class of the same package,
+ * named after annotated type with <code>Fixtures</code> suffix.
+ *
+ * @author Tomasz Kisiel
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Fixture {
+
+	/**
+	 * Factory method name.
+	 */
+	String name();
+
+	/**
+	 * Root object type.
+	 */
+	Class<?> type();
+
+	String[] settings();
+
+	String[] commonPackages() default {};
+
+	Class<?>[] extraInterfaces() default {};
+
+}
@@ -0,0 +1,182 @@
+package mockbuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * FixtureGenerator.
+ * <p>
+ * Generates Java source of factory method creating and stubbing object graph of given settings directly,
+ * for types loaded already.
+ * <p>
+ * Usage: <code>FixtureGenerator &lt;type&gt; &lt;settings file&gt; &lt;class name&gt; &lt;output dir&gt;
+ * [common package ...]</code>. Each non-empty line of settings file, not starting with <code>#</code>,
+ * is one setting; factory method is named after settings file.
+ *
+ * @author Tomasz Kisiel
+ */
+public final class FixtureGenerator {
+
+	private FixtureGenerator() {
+	}
+
+	/**
+	 * @param className qualified name of generated class.
+	 * @param method factory method name.
+	 * @param type root object type.
+	 * @param settings settings.
+	 * @param commonPackages
+	 * @param extraInterfaces
+	 * @return source of generated class.
+	 * @throws Exception when settings do not match types.
+	 */
+	public static String generate(final String className, final String method, final Class<?> type,
+			final String[] settings, final String[] commonPackages, final Class<?>... extraInterfaces)
+	throws Exception {
+		SourceGenerator<Class<?>> generator = new SourceGenerator<Class<?>>(new ClassModel(type.getClassLoader()));
+		String fixture = generator.fixture(method, Parser.parse(type, settings, extraInterfaces), type,
+			commonPackages, Arrays.<Class<?>>asList(extraInterfaces));
+		int dot = className.lastIndexOf('.');
+		return SourceGenerator.compilationUnit(dot < 0 ? null : className.substring(0, dot),
+			className.substring(dot + 1), method + " settings of {@link " + type.getName() + "}",
+			Collections.singletonList(fixture));
+	}
+
+	/**
+	 * @param args type, settings file, class name, output directory and common packages.
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: " + FixtureGenerator.class.getName()
+				+ " <type> <settings file> <class name> <output dir> [common package ...]");
+			System.exit(1);
+		}
+		File settingsFile = new File(args[1]);
+		List<String> settings = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(settingsFile),
+			"UTF-8"));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (!line.trim().isEmpty() && !line.startsWith("#")) {
+					settings.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		String method = settingsFile.getName().replaceFirst("\\.[^.]*$", "").replaceAll("\\W", "_");
+		String source = generate(args[2], method, Class.forName(args[0]),
+			settings.toArray(new String[settings.size()]), Arrays.copyOfRange(args, 4, args.length));
+
+		File file = new File(args[3], args[2].replace('.', File.separatorChar) + ".java");
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(source);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * ClassModel.
+	 * <p>
+	 * Classes loaded by class loader of root type.
+	 */
+	private static final class ClassModel implements SourceGenerator.TypeModel<Class<?>> {
+		private final ClassLoader loader;
+		ClassModel(final ClassLoader loader) {
+			this.loader = loader;
+		}
+		@Override
+		public Class<?> getter(final Class<?> type, final String property) {
+			try {
+				Method getter = Utils.getter(type, property);
+				return getter.getParameterTypes().length == 0 ? getter.getReturnType() : null;
+			} catch (Exception e) {
+				return null;
+			}
+		}
+		@Override
+		public List<Class<?>> typeArguments(final Class<?> type, final String property) {
+			try {
+				Class<?>[] typeArguments = Utils.typeArguments(Utils.getter(type, property));
+				return typeArguments == null ? null : Arrays.<Class<?>>asList(typeArguments);
+			} catch (Exception e) {
+				return null;
+			}
+		}
+		@Override
+		public Class<?> find(final String name, final String[] packages) {
+			for (String pkg : packages) {
+				try {
+					return Class.forName(pkg == null ? name : Utils.join(pkg, name), false, this.loader);
+				} catch (ClassNotFoundException e) {}
+			}
+			return null;
+		}
+		@Override
+		public String name(final Class<?> type) {
+			return type.getCanonicalName();
+		}
+		@Override
+		public Class<?> component(final Class<?> type) {
+			return type.getComponentType();
+		}
+		@Override
+		public boolean isSubtype(final Class<?> type, final Class<?> cls) {
+			return cls.isAssignableFrom(type);
+		}
+		@Override
+		public boolean isAssignableFrom(final Class<?> type, final Class<?> cls) {
+			return type.isAssignableFrom(cls);
+		}
+		@Override
+		public boolean isAbstract(final Class<?> type) {
+			return type.isInterface() || Modifier.isAbstract(type.getModifiers());
+		}
+		@Override
+		public boolean isEnum(final Class<?> type) {
+			return type.isEnum();
+		}
+		@Override
+		public boolean isPrimitive(final Class<?> type) {
+			return type.isPrimitive();
+		}
+		@Override
+		public boolean isMockable(final Class<?> type) {
+			return !type.isPrimitive() && !type.isArray() && !Modifier.isFinal(type.getModifiers());
+		}
+		@Override
+		public boolean hasStringConstructor(final Class<?> type) {
+			try {
+				type.getConstructor(String.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+		@Override
+		public boolean hasConstant(final Class<?> type, final String name) {
+			for (Object constant : type.getEnumConstants()) {
+				if (((Enum<?>) constant).name().equals(name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+}
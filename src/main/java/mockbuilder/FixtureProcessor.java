@@ -0,0 +1,278 @@
+package mockbuilder;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * FixtureProcessor.
+ * <p>
+ * Checks settings of {@link Fixture}s against getters of their types and generates
+ * factory methods creating and stubbing their object graphs directly.
+ *
+ * @author Tomasz Kisiel
+ */
+@SupportedAnnotationTypes({"mockbuilder.Fixture", "mockbuilder.Fixtures"})
+public class FixtureProcessor extends AbstractProcessor {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+		Set<javax.lang.model.element.Element> annotated = new LinkedHashSet<javax.lang.model.element.Element>();
+		annotated.addAll(roundEnv.getElementsAnnotatedWith(Fixture.class));
+		annotated.addAll(roundEnv.getElementsAnnotatedWith(Fixtures.class));
+		for (javax.lang.model.element.Element type : annotated) {
+			generate((TypeElement) type);
+		}
+		return true;
+	}
+
+	private void generate(final TypeElement type) {
+		Elements elements = this.processingEnv.getElementUtils();
+		SourceGenerator<TypeMirror> generator = new SourceGenerator<TypeMirror>(new MirrorModel(
+			this.processingEnv.getTypeUtils(), elements));
+		List<String> fixtures = new ArrayList<String>();
+		boolean valid = true;
+		for (AnnotationMirror fixture : fixtures(type)) {
+			Map<String, AnnotationValue> values = new HashMap<String, AnnotationValue>();
+			for (Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+					: elements.getElementValuesWithDefaults(fixture).entrySet()) {
+				values.put(value.getKey().getSimpleName().toString(), value.getValue());
+			}
+			String name = (String) values.get("name").getValue();
+			try {
+				List<TypeMirror> extraInterfaces = new ArrayList<TypeMirror>();
+				for (Object value : (List<?>) values.get("extraInterfaces").getValue()) {
+					extraInterfaces.add(this.processingEnv.getTypeUtils().erasure(
+						(TypeMirror) ((AnnotationValue) value).getValue()));
+				}
+				fixtures.add(generator.fixture(name, Parser.parse(Object.class, strings(values.get("settings"))),
+					this.processingEnv.getTypeUtils().erasure((TypeMirror) values.get("type").getValue()),
+					strings(values.get("commonPackages")), extraInterfaces));
+			} catch (Exception e) {
+				this.processingEnv.getMessager().printMessage(Kind.ERROR,
+					"Invalid fixture " + name + ": " + e.getMessage(), type, fixture);
+				valid = false;
+			}
+		}
+		if (!valid) {
+			return;
+		}
+		String pkg = elements.getPackageOf(type).getQualifiedName().toString();
+		String name = type.getSimpleName() + "Fixtures";
+		try {
+			Writer writer = this.processingEnv.getFiler()
+				.createSourceFile(pkg.isEmpty() ? name : pkg + "." + name, type).openWriter();
+			try {
+				writer.write(SourceGenerator.compilationUnit(pkg, name,
+					"{@link " + type.getQualifiedName() + "}", fixtures));
+			} finally {
+				writer.close();
+			}
+		} catch (Exception e) {
+			this.processingEnv.getMessager().printMessage(Kind.ERROR,
+				"Cannot generate fixtures: " + e.getMessage(), type);
+		}
+	}
+
+	/**
+	 * @return {@link Fixture} annotations of given type, including ones grouped by {@link Fixtures}.
+	 */
+	private static List<AnnotationMirror> fixtures(final TypeElement type) {
+		List<AnnotationMirror> fixtures = new ArrayList<AnnotationMirror>();
+		for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+			String name = ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+			if (Fixture.class.getName().equals(name)) {
+				fixtures.add(mirror);
+			} else if (Fixtures.class.getName().equals(name)) {
+				for (AnnotationValue value : mirror.getElementValues().values()) {
+					for (Object fixture : (List<?>) value.getValue()) {
+						fixtures.add((AnnotationMirror) ((AnnotationValue) fixture).getValue());
+					}
+				}
+			}
+		}
+		return fixtures;
+	}
+
+	private static String[] strings(final AnnotationValue value) {
+		List<?> values = (List<?>) value.getValue();
+		String[] strings = new String[values.size()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = (String) ((AnnotationValue) values.get(i)).getValue();
+		}
+		return strings;
+	}
+
+	/**
+	 * MirrorModel.
+	 * <p>
+	 * Types being compiled.
+	 */
+	private static final class MirrorModel implements SourceGenerator.TypeModel<TypeMirror> {
+		private final Types types;
+		private final Elements elements;
+		MirrorModel(final Types types, final Elements elements) {
+			this.types = types;
+			this.elements = elements;
+		}
+		@Override
+		public TypeMirror getter(final TypeMirror type, final String property) {
+			TypeMirror returnType = returnType(type, property);
+			return returnType == null ? null : this.types.erasure(returnType);
+		}
+		@Override
+		public List<TypeMirror> typeArguments(final TypeMirror type, final String property) {
+			TypeMirror returnType = returnType(type, property);
+			if (returnType == null || returnType.getKind() != TypeKind.DECLARED) {
+				return null;
+			}
+			List<? extends TypeMirror> arguments = ((DeclaredType) returnType).getTypeArguments();
+			int count = isSubtype(returnType, List.class) ? 1 : isSubtype(returnType, Map.class) ? 2 : 0;
+			if (count == 0 || arguments.size() != count) {
+				return null;
+			}
+			List<TypeMirror> typeArguments = new ArrayList<TypeMirror>(count);
+			for (TypeMirror argument : arguments) {
+				TypeMirror bound = argument.getKind() == TypeKind.WILDCARD
+					? ((WildcardType) argument).getExtendsBound() : argument;
+				if (bound == null || bound.getKind() != TypeKind.DECLARED && bound.getKind() != TypeKind.ARRAY
+						|| Object.class.getName().equals(this.types.erasure(bound).toString())) {
+					return null;
+				}
+				typeArguments.add(this.types.erasure(bound));
+			}
+			return typeArguments;
+		}
+		/**
+		 * @return return type of public getter of given property, <code>null</code> when there is none.
+		 */
+		private TypeMirror returnType(final TypeMirror type, final String property) {
+			if (type.getKind() != TypeKind.DECLARED) {
+				return null;
+			}
+			String name = "get" + property.substring(0, 1).toUpperCase() + property.substring(1);
+			TypeElement typeElement = (TypeElement) this.types.asElement(type);
+			for (ExecutableElement method : ElementFilter.methodsIn(this.elements.getAllMembers(typeElement))) {
+				if (method.getSimpleName().contentEquals(name) && method.getParameters().isEmpty()
+						&& method.getModifiers().contains(Modifier.PUBLIC)) {
+					return ((ExecutableType) this.types.asMemberOf((DeclaredType) type, method)).getReturnType();
+				}
+			}
+			return null;
+		}
+		@Override
+		public TypeMirror find(final String name, final String[] packages) {
+			for (String pkg : packages) {
+				TypeElement type = this.elements.getTypeElement(pkg == null ? name : Utils.join(pkg, name));
+				if (type != null) {
+					return this.types.erasure(type.asType());
+				}
+			}
+			return null;
+		}
+		@Override
+		public String name(final TypeMirror type) {
+			return type.toString();
+		}
+		@Override
+		public TypeMirror component(final TypeMirror type) {
+			return type.getKind() == TypeKind.ARRAY ? ((ArrayType) type).getComponentType() : null;
+		}
+		@Override
+		public boolean isSubtype(final TypeMirror type, final Class<?> cls) {
+			TypeElement clsElement = this.elements.getTypeElement(cls.getCanonicalName());
+			return clsElement != null && this.types.isSubtype(type, this.types.erasure(clsElement.asType()));
+		}
+		@Override
+		public boolean isAssignableFrom(final TypeMirror type, final Class<?> cls) {
+			TypeElement clsElement = this.elements.getTypeElement(cls.getCanonicalName());
+			return clsElement != null && this.types.isSubtype(this.types.erasure(clsElement.asType()), type);
+		}
+		@Override
+		public boolean isAbstract(final TypeMirror type) {
+			TypeElement element = typeElement(type);
+			return element != null
+				&& (element.getKind().isInterface() || element.getModifiers().contains(Modifier.ABSTRACT));
+		}
+		@Override
+		public boolean isEnum(final TypeMirror type) {
+			TypeElement element = typeElement(type);
+			return element != null && element.getKind() == ElementKind.ENUM;
+		}
+		@Override
+		public boolean isPrimitive(final TypeMirror type) {
+			return type.getKind().isPrimitive();
+		}
+		@Override
+		public boolean isMockable(final TypeMirror type) {
+			TypeElement element = typeElement(type);
+			return element != null && !element.getModifiers().contains(Modifier.FINAL);
+		}
+		@Override
+		public boolean hasStringConstructor(final TypeMirror type) {
+			TypeElement element = typeElement(type);
+			if (element == null) {
+				return false;
+			}
+			TypeMirror string = this.elements.getTypeElement(String.class.getName()).asType();
+			for (ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements())) {
+				if (constructor.getModifiers().contains(Modifier.PUBLIC) && constructor.getParameters().size() == 1
+						&& this.types.isSameType(constructor.getParameters().get(0).asType(), string)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		@Override
+		public boolean hasConstant(final TypeMirror type, final String name) {
+			TypeElement element = typeElement(type);
+			for (javax.lang.model.element.Element member : element.getEnclosedElements()) {
+				if (member.getKind() == ElementKind.ENUM_CONSTANT && member.getSimpleName().contentEquals(name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		private TypeElement typeElement(final TypeMirror type) {
+			return type.getKind() == TypeKind.DECLARED ? (TypeElement) this.types.asElement(type) : null;
+		}
+	}
+
+}
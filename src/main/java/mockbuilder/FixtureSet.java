@@ -0,0 +1,96 @@
+package mockbuilder;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import mockbuilder.MockBuilder.Mode;
+
+/**
+ * FixtureSet.
+ * <p>
+ * Settings of several named root objects, parsed together and built in a single pass by one builder,
+ * so that aliases declared in settings of one root can be referred in settings of others.
+ * <pre>
+ * Map&lt;String, Object&gt; roots = new FixtureSet()
+ *     .add("a", A.class, "@c = b.c", "b.c.int = 1")
+ *     .add("b", B.class, "c = @c")
+ *     .build();
+ * </pre>
+ *
+ * @author Tomasz Kisiel
+ */
+public final class FixtureSet {
+
+	private static final Pattern NAME = Pattern.compile("\\w+");
+
+	/** name of collection of roots in settings. */
+	private static final String ROOTS = "roots";
+
+	private final List<String> settings = new ArrayList<String>();
+
+	private final Set<String> names = new HashSet<String>();
+
+
+	/**
+	 * @param name root name.
+	 * @param type root object type.
+	 * @param settings settings of root object.
+	 * @return this set.
+	 */
+	public FixtureSet add(final String name, final Class<?> type, final String... settings) {
+		if (!NAME.matcher(name).matches()) {
+			throw new IllegalArgumentException("Invalid root name " + name);
+		} else if (!this.names.add(name)) {
+			throw new IllegalArgumentException("Duplicate root " + name);
+		}
+		String root = ROOTS + "[" + name + "]<" + type.getName() + ">";
+		int count = this.settings.size();
+		for (String setting : settings) {
+			if (setting.startsWith("#")) {
+				continue;
+			} else if (setting.startsWith("@")) {
+				String[] aliasAndPath = setting.split(" ?= ?", 2);
+				String path = aliasAndPath.length > 1 ? aliasAndPath[1].trim() : "";
+				this.settings.add(aliasAndPath[0] + " = " + root + (path.isEmpty() ? "" : "." + path));
+			} else {
+				this.settings.add(root + "." + setting);
+			}
+		}
+		if (this.settings.size() == count) {
+			this.settings.add(root + " = *");
+		}
+		return this;
+	}
+
+	/**
+	 * @param modes
+	 * @param commonPackages
+	 * @return built root objects by their names, in order they were added.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> build(final Set<Mode> modes, final String[] commonPackages) throws Exception {
+		if (this.settings.isEmpty()) {
+			return new LinkedHashMap<String, Object>();
+		}
+		Element roots = Parser.parse(Map.class, this.settings.toArray(new String[this.settings.size()]))
+			.children.get(0);
+		roots.type = Map.class;
+		return (Map<String, Object>) MockBuilder.build(roots, modes, commonPackages);
+	}
+
+	/**
+	 * @return built root objects by their names, in order they were added.
+	 * @throws Exception
+	 */
+	public Map<String, Object> build() throws Exception {
+		return build(EnumSet.noneOf(Mode.class), new String[0]);
+	}
+
+}
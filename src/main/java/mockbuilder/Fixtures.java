@@ -0,0 +1,21 @@
+package mockbuilder;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Fixtures.
+ * <p>
+ * Several {@link Fixture}s of one type.
+ *
+ * @author Tomasz Kisiel
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Fixtures {
+
+	Fixture[] value();
+
+}
@@ -0,0 +1,89 @@
+package mockbuilder;
+
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * LazyList.
+ * <p>
+ * Read-only list creating its elements on access, optionally keeping
+ * bounded number of recently accessed ones.
+ *
+ * @author Tomasz Kisiel
+ */
+final class LazyList<E> extends AbstractList<E> implements RandomAccess {
+
+	private final int size;
+
+	private final Generator<? extends E> generator;
+
+	private final Map<Integer, E> cache;
+
+
+	/**
+	 * @param size list size.
+	 * @param generator element generator.
+	 * @param cacheSize number of recently accessed elements to keep, 0 to generate them on each access.
+	 */
+	LazyList(final int size, final Generator<? extends E> generator, final int cacheSize) {
+		if (size < 0 || generator == null) throw new IllegalArgumentException();
+		this.size = size;
+		this.generator = generator;
+		this.cache = cacheSize <= 0 ? null : new LinkedHashMap<Integer, E>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer, E> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Generator.
+	 */
+	interface Generator<E> {
+		E generate(int index) throws Exception;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public E get(final int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+		if (this.cache == null) {
+			return generate(index);
+		}
+		synchronized (this.cache) {
+			E element = this.cache.get(index);
+			if (element == null && !this.cache.containsKey(index)) {
+				element = generate(index);
+				this.cache.put(index, element);
+			}
+			return element;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	private E generate(final int index) {
+		try {
+			return this.generator.generate(index);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot generate element " + index, e);
+		}
+	}
+
+}
@@ -1,198 +1,1089 @@
-package mockbuilder;
-
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-
-import org.mockito.Mockito;
-import org.mockito.stubbing.OngoingStubbing;
-
-/**
- * MockBuilder.
- *
- * @author Tomasz Kisiel
- */
-@SuppressWarnings({"rawtypes", "unchecked"})
-public class MockBuilder {
-
-	private final String[] commonPackages;
-
-	private Object root;
-
-
-	private MockBuilder(final Element rootElement, final String[] commonPackages) throws Exception {
-		this.commonPackages = Utils.join(Utils.COMMON_PACKAGES, commonPackages);
-		this.root = buildTree(rootElement);
-	}
-
-	private ElementBuilder builder(final Class<?> type) {
-		if (type == null) throw new IllegalArgumentException();
-		return type.isArray() ? new ArrayBuilder()
-			: List.class.isAssignableFrom(type) ? new ListBuilder()
-			: Map.class.isAssignableFrom(type) ? new MapBuilder()
-			: new PlainBuilder();
-	}
-
-	private Object buildTree(final Element element) throws Exception {
-		return builder(element.type).build(element);
-	}
-
-	/**
-	 * ElementBuilder.
-	 */
-	interface ElementBuilder {
-		Object build(Element element) throws Exception;
-	}
-
-	/**
-	 * AbstractElementBuiler.
-	 */
-	private abstract class AbstractElementBuiler implements ElementBuilder {
-		Object find(final Element element) throws Exception {
-			return element.children.isEmpty()
-				? Utils.createValue(element.value, element.type, MockBuilder.this.commonPackages, element.extraInterfaces)
-				: Utils.create(element.type, element.extraInterfaces);
-		}
-	}
-
-	/**
-	 * PlainBuilder.
-	 */
-	private class PlainBuilder extends AbstractElementBuiler {
-		@Override
-		public Object build(final Element element) throws Exception {
-			Object obj = find(element);
-			List<List<Element>> calls = sortCalls(element.children);
-			for (List<Element> elems : calls) {
-				Iterator<Element> it = elems.iterator();
-				Element child = it.next();
-				Method getter = Utils.getter(element.type, child.name);
-				Class<?> getterType = getter.getReturnType();
-				Object childObj = getObject(child, getterType);
-				OngoingStubbing<Object> stubb =
-					Mockito.when(getter.invoke(obj)).thenReturn(childObj);
-				while (it.hasNext()) {
-					stubb.thenReturn(getObject(it.next(), getterType));
-				}
-			}
-			return obj;
-		}
-		private Object getObject(final Element elem, final Class<?> getterType)
-		throws Exception {
-			elem.type = elem.hint == null ? getterType
-				: Utils.asType(elem.hint, MockBuilder.this.commonPackages);
-			return buildTree(elem);
-		}
-		private List<List<Element>> sortCalls(final List<Element> elements) {
-			Map<String, List<Element>> map = new LinkedHashMap<String, List<Element>>();
-			for (Element elem : elements) {
-				Utils.getList(elem.name, map).add(elem);
-			}
-			return new ArrayList<List<Element>>(map.values());
-		}
-	}
-
-	/**
-	 * ArrayBuilder.
-	 */
-	private class ArrayBuilder extends AbstractElementBuiler {
-		@Override
-		public Object build(final Element element) throws Exception {
-			Object[] array = (Object[]) find(element);
-			for (Element child : element.children) {
-				child.type = child.hint != null
-					? Utils.asType(child.hint, MockBuilder.this.commonPackages)
-					: element.type.getComponentType();
-				Object childObj = buildTree(child);
-				array[Integer.parseInt(child.index)] = childObj;
-			}
-			return array;
-		}
-	}
-
-	/**
-	 * ListBuilder.
-	 */
-	private class ListBuilder extends AbstractElementBuiler {
-		@Override
-		public Object build(final Element element) throws Exception {
-			List list = (List) find(element);
-			for (Element child : element.children) {
-				if (child.hint == null || child.hint.isEmpty()) {
-					throw new IllegalArgumentException("List elements should have hint.");
-				}
-				child.type = Utils.asType(child.hint, MockBuilder.this.commonPackages);
-				Object childObj = buildTree(child);
-				set(list, Integer.parseInt(child.index), childObj);
-			}
-			return list;
-		}
-		private void set(final List list, final int index, final Object obj) {
-			int diff = 1 + index - list.size();
-			if (diff > 0) {
-				for (int i = 0; i < diff; i++) {
-					list.add(null);
-				}
-			}
-			list.set(index, obj);
-		}
-	}
-
-	/**
-	 * MapBuilder.
-	 */
-	private class MapBuilder extends AbstractElementBuiler {
-		@Override
-		public Object build(final Element element) throws Exception {
-			Map map = (Map) find(element);
-			for (Element child : element.children) {
-				if (child.hint == null || child.hint.isEmpty()) {
-					throw new IllegalArgumentException("Map elements should have hint.");
-				}
-				child.type = Utils.asType(child.hint, MockBuilder.this.commonPackages);
-				Object childObj = buildTree(child);
-				Object key;
-				String[] tokens = child.index.split("[<>]");
-				if (tokens.length > 1) {
-					Class<?> keyType = Utils.asType(tokens[1], MockBuilder.this.commonPackages);
-					key = Utils.createValue(tokens[0], keyType);
-				} else {
-					key = tokens[0];
-				}
-				map.put(key, childObj);
-			}
-			return map;
-		}
-	}
-
-	/**
-	 * @param <T>
-	 * @param type
-	 * @param settings
-	 * @param commonPackages
-	 * @param extraInterfaces
-	 * @return
-	 * @throws Exception
-	 */
-	public static <T> T build(final Class<T> type, final String[] settings,
-			final String[] commonPackages, final Class<?>... extraInterfaces) throws Exception {
-		return (T) new MockBuilder(Parser.parse(type, settings, extraInterfaces), commonPackages).root;
-	}
-
-	/**
-	 * @param <T>
-	 * @param type
-	 * @param settings
-	 * @param extraInterfaces
-	 * @return
-	 * @throws Exception
-	 */
-	public static <T> T build(final Class<T> type, final String[] settings, final Class<?>... extraInterfaces)
-	throws Exception {
-		return (T) new MockBuilder(Parser.parse(type, settings, extraInterfaces), new String[0]).root;
-	}
-
-}
+package mockbuilder;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mockito.stubbing.Stubber;
+
+/**
+ * MockBuilder.
+ * <p>
+ * Builds are thread-safe: each of them has its own builder and element tree, while caches shared by
+ * all builds (getters, type arguments, types, converters, beans, layouts of stateful mocks) are concurrent
+ * maps, and caches of converted values and states of stateful mocks are striped. Built object graphs
+ * are not synchronized, except for lists generating their elements.
+ *
+ * @author Tomasz Kisiel
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class MockBuilder {
+
+	/**
+	 * Build modes.
+	 */
+	public enum Mode {
+		/**
+		 * Structurally identical subtrees without aliases, references, generated values
+		 * and subsequent invocations are built once and shared.
+		 */
+		DEDUPLICATE,
+		/**
+		 * Concrete classes with no-arg constructor and records are instantiated and populated through
+		 * setters, fields or canonical constructors instead of being mocked, unless their getters are
+		 * invoked subsequently or they implement extra interfaces.
+		 */
+		POPULATE,
+		/**
+		 * Mocks keep values of their properties, returned by getters until setters change them.
+		 * Objects are not shared then.
+		 */
+		STATEFUL;
+	}
+
+	static final String INDEX = "${i}";
+
+	private static final Object PENDING = new Object();
+
+	private static final Object KEPT = new Object();
+
+	private final String[] commonPackages;
+
+	private Object root;
+
+	private final Map<String, Object> aliases = new HashMap<String, Object>();
+
+	private final List<Fixup> fixups = new ArrayList<Fixup>();
+
+	private final Set<String> references = new HashSet<String>();
+
+	private final Map<Element, Integer> shapes;
+
+	private final Map<List<Object>, Object> shared = new HashMap<List<Object>, Object>();
+
+	private final boolean populate;
+
+	private final boolean stateful;
+
+
+	private MockBuilder(final Element rootElement, final String[] commonPackages, final Set<Mode> modes)
+	throws Exception {
+		this(commonPackages, modes.contains(Mode.DEDUPLICATE) && !modes.contains(Mode.STATEFUL)
+			? shapes(rootElement) : null, modes);
+		this.root = buildTree(rootElement);
+		link();
+	}
+
+	private MockBuilder(final String[] commonPackages, final Map<Element, Integer> shapes, final Set<Mode> modes) {
+		this.commonPackages = Utils.join(Utils.COMMON_PACKAGES, commonPackages);
+		this.shapes = shapes;
+		this.populate = modes.contains(Mode.POPULATE);
+		this.stateful = modes.contains(Mode.STATEFUL);
+	}
+
+	/**
+	 * Checks references and puts objects referred before they were built in place.
+	 */
+	private void link() {
+		for (String reference : this.references) {
+			alias(reference);
+		}
+		for (Fixup fixup : this.fixups) {
+			fixup.apply(alias(fixup.alias));
+		}
+	}
+
+	private ElementBuilder builder(final Element element) {
+		Class<?> type = element.type;
+		if (type == null) throw new IllegalArgumentException();
+		Bean bean = type.isArray() || List.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)
+			? null : bean(element);
+		return type.isArray() ? new ArrayBuilder()
+			: List.class.isAssignableFrom(type) ? new ListBuilder()
+			: Map.class.isAssignableFrom(type) ? new MapBuilder()
+			: bean != null ? new BeanBuilder(bean)
+			: new PlainBuilder();
+	}
+
+	/**
+	 * @return builder applying settings onto given existing object.
+	 */
+	private ElementBuilder builder(final Object obj) {
+		if (obj.getClass().isArray()) {
+			return new ArrayBuilder();
+		} else if (obj instanceof List) {
+			return new ListBuilder();
+		} else if (obj instanceof Map) {
+			return new MapBuilder();
+		}
+		// populated objects are not mocks, their classes are not generated
+		Bean bean = obj.getClass().getName().contains("$$") ? null : Bean.of(obj.getClass());
+		return bean != null ? new BeanBuilder(bean) : new PlainBuilder();
+	}
+
+	/**
+	 * @return bean populated for given element, <code>null</code> when it should be mocked.
+	 */
+	private Bean bean(final Element element) {
+		if (!this.populate || element.extraInterfaces != null && element.extraInterfaces.length > 0) {
+			return null;
+		}
+		Set<String> calls = new HashSet<String>();
+		for (Element child : element.children) {
+			if (!calls.add(child.name)) {
+				return null;
+			}
+		}
+		return Bean.of(element.type);
+	}
+
+	private Object buildTree(final Element element) throws Exception {
+		return buildTree(element, -1);
+	}
+
+	/**
+	 * Builds given element and its whole subtree, keeping elements being built on explicit stack
+	 * instead of call stack, so that depth of the tree is limited by heap only.
+	 *
+	 * @param element element.
+	 * @param index index of enclosing collection element.
+	 * @return built object.
+	 * @throws Exception .
+	 */
+	private Object buildTree(final Element element, final int index) throws Exception {
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		return run(enter(element, index, stack), stack);
+	}
+
+	/**
+	 * Applies given delta tree onto existing object graph. Delta elements with children are followed
+	 * into existing objects, all others (leaves, resets, subsequent invocations and references) are built
+	 * anew and replace stubbing of their getter, or their collection slot or map entry.
+	 *
+	 * @param element delta tree.
+	 * @param obj root of existing object graph.
+	 * @return given object, or its copy when it cannot be changed in place.
+	 * @throws Exception .
+	 */
+	private Object applyTree(final Element element, final Object obj) throws Exception {
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		Object applied = run(adopt(element, -1, obj, stack), stack);
+		return applied == KEPT ? obj : applied;
+	}
+
+	/**
+	 * Builds elements of frames on given stack, given object being built for current child of the top one.
+	 *
+	 * @return object built for the bottom frame, {@link #KEPT} when it was existing one kept in place.
+	 */
+	private Object run(final Object first, final Deque<Frame> stack) throws Exception {
+		Object obj = first;
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			if (obj == KEPT) {
+				frame.advance();
+				obj = PENDING;
+			} else if (obj != PENDING) {
+				frame.builder.attach(frame, frame.current(), frame.position(), obj);
+				frame.advance();
+				obj = PENDING;
+			} else if (frame.hasNext()) {
+				Element child = frame.current();
+				frame.builder.prepare(frame, child);
+				Object existing = frame.existing != null && isFollowed(child)
+					? frame.builder.existing(frame, child, frame.position()) : null;
+				if (existing != null) {
+					obj = adopt(child, frame.position() >= 0 ? frame.position() : frame.index, existing, stack);
+				} else if (child.reference != null) {
+					this.references.add(child.reference);
+					obj = new Reference(child.reference);
+				} else {
+					obj = enter(child, frame.position() >= 0 ? frame.position() : frame.index, stack);
+				}
+			} else {
+				stack.pop();
+				obj = exit(frame);
+				if (frame.existing != null && obj == frame.existing) {
+					obj = KEPT;
+				}
+			}
+		}
+		return obj;
+	}
+
+	/**
+	 * @return shared object built already for given element,
+	 * 		or {@link #PENDING} when new frame for building it is pushed on given stack.
+	 */
+	private Object enter(final Element element, final int index, final Deque<Frame> stack) throws Exception {
+		Integer shape = this.shapes == null ? null : this.shapes.get(element);
+		if (shape != null) {
+			List<Object> key = Arrays.<Object>asList(element.type, shape);
+			if (this.shared.containsKey(key)) {
+				return this.shared.get(key);
+			}
+		}
+		Frame frame = new Frame(element, builder(element), index);
+		frame.builder.create(frame);
+		frame.start();
+		stack.push(frame);
+		return PENDING;
+	}
+
+	/**
+	 * Pushes new frame applying given element onto given existing object.
+	 *
+	 * @return {@link #PENDING}.
+	 */
+	private Object adopt(final Element element, final int index, final Object obj, final Deque<Frame> stack)
+	throws Exception {
+		Frame frame = new Frame(element, builder(obj), index);
+		frame.existing = obj;
+		frame.builder.adopt(frame, obj);
+		frame.start();
+		stack.push(frame);
+		return PENDING;
+	}
+
+	/**
+	 * @return object built in given frame.
+	 */
+	private Object exit(final Frame frame) throws Exception {
+		Object obj = frame.builder.finish(frame);
+		Element element = frame.element;
+		if (element.alias != null) {
+			this.aliases.put(element.alias, obj);
+		}
+		Integer shape = this.shapes == null ? null : this.shapes.get(element);
+		if (shape != null) {
+			this.shared.put(Arrays.<Object>asList(element.type, shape), obj);
+		}
+		return obj;
+	}
+
+	/**
+	 * @return first index set by given collection element.
+	 */
+	private static int first(final Element child) {
+		return child.isRange() ? child.from : Integer.parseInt(child.index);
+	}
+
+	/**
+	 * @return last index set by given collection element, wildcards cover collection of given size.
+	 */
+	private static int last(final Element child, final int size) {
+		return !child.isRange() ? Integer.parseInt(child.index) : child.to < 0 ? size - 1 : child.to;
+	}
+
+	/**
+	 * Frame.
+	 * <p>
+	 * Element being built, with cursor over its children (and indexes of range children).
+	 */
+	private static final class Frame {
+		final Element element;
+		final ElementBuilder builder;
+		/** index of enclosing collection element, substituted for {@link MockBuilder#INDEX}. */
+		final int index;
+		Object obj;
+		/** existing object children are applied onto, <code>null</code> when element is built anew. */
+		Object existing;
+		/** children in build order. */
+		List<Element> children;
+		/** whether children are collection elements, built for each index they cover. */
+		boolean indexed;
+		int size;
+		Object[] keys;
+		/** component values of record being built. */
+		Object[] args;
+		/** objects returned by getter of current child and preceding subsequent invocations of it. */
+		List<Object> returned;
+		private int child;
+		private int position;
+		private int last;
+		Frame(final Element element, final ElementBuilder builder, final int index) {
+			this.element = element;
+			this.builder = builder;
+			this.index = index;
+			this.children = element.children;
+		}
+		void start() {
+			this.child = 0;
+			reset();
+		}
+		boolean hasNext() {
+			return this.child < this.children.size();
+		}
+		Element current() {
+			return this.children.get(this.child);
+		}
+		Element previous() {
+			return this.child == 0 ? null : this.children.get(this.child - 1);
+		}
+		Element next() {
+			return this.child + 1 < this.children.size() ? this.children.get(this.child + 1) : null;
+		}
+		/**
+		 * @return position of current child in list of children.
+		 */
+		int ordinal() {
+			return this.child;
+		}
+		/**
+		 * @return collection index of current child, -1 if children are not indexed.
+		 */
+		int position() {
+			return this.position;
+		}
+		void advance() {
+			if (this.position < this.last) {
+				this.position++;
+			} else {
+				this.child++;
+				reset();
+			}
+		}
+		private void reset() {
+			for (; this.indexed && hasNext(); this.child++) {
+				this.position = first(current());
+				this.last = last(current(), this.size);
+				if (this.position <= this.last) {
+					return;
+				}
+			}
+			this.position = -1;
+			this.last = -1;
+		}
+	}
+
+	/**
+	 * @return ids of subtree shapes, the same for elements building identical objects;
+	 * 		elements which cannot be shared have no id.
+	 */
+	private static Map<Element, Integer> shapes(final Element rootElement) {
+		Map<Element, Integer> shapes = new IdentityHashMap<Element, Integer>();
+		Map<List<Object>, Integer> ids = new HashMap<List<Object>, Integer>();
+		for (Element element : Element.postOrder(rootElement)) {
+			boolean shareable = element.alias == null && element.reference == null
+				&& (element.value == null || !element.value.contains(INDEX));
+			List<Object> key = new ArrayList<Object>(4 + 3 * element.children.size());
+			key.add(element.hint);
+			key.add(element.value);
+			key.add(element.isArray);
+			key.add(element.extraInterfaces == null ? null : Arrays.asList(element.extraInterfaces));
+			Set<String> calls = new HashSet<String>();
+			for (Element child : element.children) {
+				Integer shape = shapes.get(child);
+				// subsequent invocations make mock stateful
+				shareable &= shape != null && (child.index != null || calls.add(child.name));
+				key.add(child.name);
+				key.add(child.index);
+				key.add(shape);
+			}
+			if (shareable) {
+				Integer id = ids.get(key);
+				if (id == null) {
+					id = ids.size();
+					ids.put(key, id);
+				}
+				shapes.put(element, id);
+			}
+		}
+		return shapes;
+	}
+
+	/**
+	 * @return whether given delta element is applied onto existing object instead of replacing it.
+	 */
+	private static boolean isFollowed(final Element element) {
+		return !element.children.isEmpty() && element.reference == null && !"*".equals(element.value);
+	}
+
+	private static boolean hasHint(final Element child) {
+		return child.hint != null && !child.hint.isEmpty();
+	}
+
+	/**
+	 * @return type of given list element or map value, given by its hint or declared by collection getter.
+	 */
+	private Class<?> elementType(final Element collection, final Element child) throws Exception {
+		return hasHint(child) ? Utils.asType(child.hint, this.commonPackages)
+			: collection.typeArguments[collection.typeArguments.length - 1];
+	}
+
+	/**
+	 * @param child map element.
+	 * @param typeArguments key and value types declared by map getter, <code>null</code> if unknown.
+	 * @return key of given map element, converted to type of its hint or declared one; string otherwise.
+	 */
+	private Object key(final Element child, final Class<?>[] typeArguments) throws Exception {
+		String index = child.index;
+		int lt = index.indexOf('<');
+		if (lt >= 0) {
+			int gt = index.indexOf('>', lt);
+			Class<?> keyType = Utils.asType(index.substring(lt + 1, gt < 0 ? index.length() : gt), this.commonPackages);
+			return Utils.createValue(index.substring(0, lt), keyType);
+		}
+		return typeArguments != null && Utils.converter(typeArguments[0]) != Utils.NONE
+			? Utils.createValue(index, typeArguments[0]) : index;
+	}
+
+	/**
+	 * @return object built for given alias.
+	 */
+	private Object alias(final String alias) {
+		if (!this.aliases.containsKey(alias)) {
+			throw new IllegalArgumentException("Element for alias @" + alias + " was not built.");
+		}
+		return this.aliases.get(alias);
+	}
+
+	/**
+	 * @return object referred by given element, <code>null</code> when it is not built yet;
+	 * 		it is put into given container at given position once the whole tree is built then.
+	 */
+	private Object resolve(final Element element, final Object container, final Object position) {
+		if (this.root != null || this.aliases.containsKey(element.reference)) {
+			return alias(element.reference);
+		}
+		this.fixups.add(new Fixup(element.reference, container, position));
+		return null;
+	}
+
+	/**
+	 * Fixup.
+	 */
+	private static final class Fixup {
+		final String alias;
+		final Object container;
+		final Object position;
+		Fixup(final String alias, final Object container, final Object position) {
+			this.alias = alias;
+			this.container = container;
+			this.position = position;
+		}
+		void apply(final Object obj) {
+			if (this.position instanceof Bean.Property) {
+				try {
+					((Bean.Property) this.position).set(this.container, obj);
+				} catch (Exception e) {
+					throw new IllegalStateException("Cannot set @" + this.alias, e);
+				}
+			} else if (this.container instanceof Object[]) {
+				((Object[]) this.container)[(Integer) this.position] = obj;
+			} else if (this.container instanceof List) {
+				((List) this.container).set((Integer) this.position, obj);
+			} else {
+				((Map) this.container).put(this.position, obj);
+			}
+		}
+	}
+
+	/**
+	 * Reference.
+	 */
+	private class Reference implements Answer<Object> {
+		private final String alias;
+		Reference(final String alias) {
+			this.alias = alias;
+		}
+		@Override
+		public Object answer(final InvocationOnMock invocation) throws Throwable {
+			return alias(this.alias);
+		}
+	}
+
+	/**
+	 * ElementBuilder.
+	 */
+	interface ElementBuilder {
+		/**
+		 * Creates object of given frame's element and sets up order of children to build.
+		 */
+		void create(Frame frame) throws Exception;
+		/**
+		 * Takes existing object of given frame's element to apply children onto, and sets up order of children.
+		 */
+		void adopt(Frame frame, Object obj) throws Exception;
+		/**
+		 * @return existing object of given child to apply its children onto, <code>null</code> to build it anew.
+		 */
+		Object existing(Frame frame, Element child, int position) throws Exception;
+		/**
+		 * Sets type of given child element before it is built.
+		 */
+		void prepare(Frame frame, Element child) throws Exception;
+		/**
+		 * Puts built object of current child in place.
+		 */
+		void attach(Frame frame, Element child, int position, Object childObj) throws Exception;
+		/**
+		 * @return object built in given frame.
+		 */
+		Object finish(Frame frame) throws Exception;
+	}
+
+	/**
+	 * AbstractElementBuiler.
+	 */
+	private abstract class AbstractElementBuiler implements ElementBuilder {
+		Object find(final Element element, final int index) throws Exception {
+			return element.children.isEmpty()
+				? Utils.createValue(value(element, index), element.type, MockBuilder.this.commonPackages,
+					element.extraInterfaces)
+				: Utils.create(element.type, element.extraInterfaces);
+		}
+		/**
+		 * @return element value with {@link MockBuilder#INDEX} replaced by index of enclosing collection element.
+		 */
+		String value(final Element element, final int index) {
+			String value = element.value;
+			return value != null && index >= 0 && value.contains(INDEX)
+				? value.replace(INDEX, String.valueOf(index)) : value;
+		}
+		/**
+		 * @return given child object, or object referred by given child put there later.
+		 */
+		Object resolve(final Frame frame, final Element child, final Object position, final Object childObj) {
+			return childObj instanceof Reference ? MockBuilder.this.resolve(child, frame.obj, position) : childObj;
+		}
+		@Override
+		public void adopt(final Frame frame, final Object obj) throws Exception {
+			frame.obj = obj;
+		}
+		@Override
+		public void prepare(final Frame frame, final Element child) throws Exception {
+		}
+		@Override
+		public Object finish(final Frame frame) throws Exception {
+			return frame.obj;
+		}
+	}
+
+	/**
+	 * PlainBuilder.
+	 */
+	private class PlainBuilder extends AbstractElementBuiler {
+		@Override
+		public void create(final Frame frame) throws Exception {
+			frame.obj = find(frame.element, frame.index);
+			frame.children = sortCalls(frame.element.children);
+		}
+		@Override
+		public void adopt(final Frame frame, final Object obj) throws Exception {
+			frame.obj = obj;
+			frame.children = sortCalls(frame.element.children);
+		}
+		@Override
+		public Object existing(final Frame frame, final Element child, final int position) throws Exception {
+			Element previous = frame.previous();
+			Element next = frame.next();
+			if (previous != null && previous.name.equals(child.name) || next != null && next.name.equals(child.name)) {
+				return null;
+			}
+			Object existing = Utils.getter(frame.element.type, child.name).invoke(frame.obj);
+			// unstubbed getters of mocks return new empty collection on each invocation
+			return existing instanceof List && ((List) existing).isEmpty()
+				|| existing instanceof Map && ((Map) existing).isEmpty() ? null : existing;
+		}
+		@Override
+		Object find(final Element element, final int index) throws Exception {
+			if (MockBuilder.this.stateful && (!element.children.isEmpty()
+					|| "*".equals(element.value) && Utils.converter(element.type) == Utils.NONE)) {
+				return State.mock(element.type, element.extraInterfaces);
+			}
+			return super.find(element, index);
+		}
+		@Override
+		public void prepare(final Frame frame, final Element child) throws Exception {
+			Method getter = Utils.getter(frame.element.type, child.name);
+			child.type = child.hint == null ? getter.getReturnType()
+				: Utils.asType(child.hint, MockBuilder.this.commonPackages);
+			child.typeArguments = Utils.typeArguments(getter);
+		}
+		@Override
+		public void attach(final Frame frame, final Element child, final int position, final Object childObj)
+		throws Exception {
+			Element previous = frame.previous();
+			boolean subsequent = previous != null && previous.name.equals(child.name);
+			if (MockBuilder.this.stateful) {
+				State.of(frame.obj).stub(child.name, childObj, subsequent);
+				return;
+			}
+			if (!subsequent) {
+				frame.returned = new ArrayList<Object>(1);
+			}
+			frame.returned.add(childObj);
+			Element next = frame.next();
+			if (next != null && next.name.equals(child.name)) {
+				return;
+			}
+			// stubbed without invoking getter, which would consume its current answers
+			Stubber stubber = null;
+			for (Object obj : frame.returned) {
+				if (obj instanceof Reference) {
+					stubber = stubber == null ? Mockito.doAnswer((Reference) obj) : stubber.doAnswer((Reference) obj);
+				} else {
+					stubber = stubber == null ? Mockito.doReturn(obj) : stubber.doReturn(obj);
+				}
+			}
+			Utils.getter(frame.element.type, child.name).invoke(stubber.when(frame.obj));
+			frame.returned = null;
+		}
+		/**
+		 * @return elements ordered so that subsequent invocations of the same getter are next to each other.
+		 */
+		private List<Element> sortCalls(final List<Element> elements) {
+			Map<String, List<Element>> map = new LinkedHashMap<String, List<Element>>();
+			for (Element elem : elements) {
+				Utils.getList(elem.name, map).add(elem);
+			}
+			if (map.size() == elements.size()) {
+				return elements;
+			}
+			List<Element> calls = new ArrayList<Element>(elements.size());
+			for (List<Element> elems : map.values()) {
+				calls.addAll(elems);
+			}
+			return calls;
+		}
+	}
+
+	/**
+	 * BeanBuilder.
+	 */
+	private class BeanBuilder extends AbstractElementBuiler {
+		private final Bean bean;
+		BeanBuilder(final Bean bean) {
+			this.bean = bean;
+		}
+		@Override
+		public void create(final Frame frame) throws Exception {
+			Element element = frame.element;
+			if (element.children.isEmpty() && !"*".equals(element.value)) {
+				frame.obj = find(element, frame.index);
+			} else if (this.bean.isRecord()) {
+				frame.args = new Object[this.bean.components()];
+			} else {
+				frame.obj = this.bean.newInstance();
+			}
+		}
+		@Override
+		public void adopt(final Frame frame, final Object obj) throws Exception {
+			Element element = frame.element;
+			if (this.bean.isRecord()) {
+				throw new IllegalArgumentException("Cannot apply settings onto record " + element.name + ".");
+			}
+			Set<String> calls = new HashSet<String>();
+			for (Element child : element.children) {
+				if (!calls.add(child.name)) {
+					throw new IllegalArgumentException("Cannot set subsequent values of " + child.name
+						+ " of populated " + element.name + ".");
+				}
+			}
+			frame.obj = obj;
+		}
+		@Override
+		public Object existing(final Frame frame, final Element child, final int position) throws Exception {
+			return Utils.getter(frame.obj.getClass(), child.name).invoke(frame.obj);
+		}
+		@Override
+		public void prepare(final Frame frame, final Element child) throws Exception {
+			child.type = child.hint == null ? this.bean.property(child.name).type
+				: Utils.asType(child.hint, MockBuilder.this.commonPackages);
+			try {
+				child.typeArguments = Utils.typeArguments(Utils.getter(frame.element.type, child.name));
+			} catch (NoSuchMethodException e) {
+				// collections set through fields only should have hints
+			}
+		}
+		@Override
+		public void attach(final Frame frame, final Element child, final int position, final Object childObj)
+		throws Exception {
+			Bean.Property property = this.bean.property(child.name);
+			if (frame.args == null) {
+				property.set(frame.obj, resolve(frame, child, property, childObj));
+			} else if (childObj instanceof Reference) {
+				if (!MockBuilder.this.aliases.containsKey(child.reference)) {
+					throw new IllegalArgumentException("Record " + frame.element.name + " cannot refer to @"
+						+ child.reference + " built after it.");
+				}
+				frame.args[property.index] = alias(child.reference);
+			} else {
+				frame.args[property.index] = childObj;
+			}
+		}
+		@Override
+		public Object finish(final Frame frame) throws Exception {
+			if (frame.args != null) {
+				frame.obj = this.bean.newInstance(frame.args);
+			}
+			return frame.obj;
+		}
+	}
+
+	/**
+	 * ArrayBuilder.
+	 */
+	private class ArrayBuilder extends AbstractElementBuiler {
+		@Override
+		public void create(final Frame frame) throws Exception {
+			Element element = frame.element;
+			if (element.children.isEmpty()) {
+				frame.obj = find(element, frame.index);
+				return;
+			}
+			int size = Utils.DEFAULT_ARRAY_SIZE;
+			for (Element child : element.children) {
+				size = Math.max(size, last(child, 0) + 1);
+			}
+			frame.obj = Array.newInstance(element.type.getComponentType(), size);
+			frame.size = size;
+			frame.indexed = true;
+		}
+		@Override
+		public void adopt(final Frame frame, final Object obj) throws Exception {
+			int size = Array.getLength(obj);
+			for (Element child : frame.element.children) {
+				if (last(child, size) >= size) {
+					throw new IllegalArgumentException("Cannot add element " + child.key() + " to array.");
+				}
+			}
+			frame.obj = obj;
+			frame.size = size;
+			frame.indexed = true;
+		}
+		@Override
+		public Object existing(final Frame frame, final Element child, final int position) {
+			return ((Object[]) frame.obj)[position];
+		}
+		@Override
+		public void prepare(final Frame frame, final Element child) throws Exception {
+			child.type = child.hint != null
+				? Utils.asType(child.hint, MockBuilder.this.commonPackages)
+				: frame.element.type.getComponentType();
+		}
+		@Override
+		public void attach(final Frame frame, final Element child, final int position, final Object childObj) {
+			((Object[]) frame.obj)[position] = resolve(frame, child, position, childObj);
+		}
+	}
+
+	/**
+	 * ListBuilder.
+	 */
+	private class ListBuilder extends AbstractElementBuiler {
+		@Override
+		public void create(final Frame frame) throws Exception {
+			Element element = frame.element;
+			if (element.children.isEmpty()) {
+				frame.obj = find(element, frame.index);
+				return;
+			}
+			long[] bounds = bounds(element, 0);
+			int size = (int) bounds[0];
+			long count = bounds[1];
+			if (isGenerated(element)) {
+				frame.obj = lazy(element, size);
+				frame.children = Collections.emptyList();
+				return;
+			}
+			frame.obj = Utils.createList(size, (int) Math.min(count, size));
+			frame.size = size;
+			frame.indexed = true;
+		}
+		/**
+		 * Grows given list when elements are added past its end; generated lists and lists which cannot
+		 * grow are copied then, the copy replacing given list.
+		 */
+		@Override
+		public void adopt(final Frame frame, final Object obj) throws Exception {
+			List list = (List) obj;
+			frame.obj = Utils.grow(list, (int) bounds(frame.element, list.size())[0]);
+			frame.size = ((List) frame.obj).size();
+			frame.indexed = true;
+		}
+		@Override
+		public Object existing(final Frame frame, final Element child, final int position) {
+			return ((List) frame.obj).get(position);
+		}
+		@Override
+		public void attach(final Frame frame, final Element child, final int position, final Object childObj) {
+			((List) frame.obj).set(position, resolve(frame, child, position, childObj));
+		}
+		/**
+		 * Sets types of elements of given list.
+		 *
+		 * @param size size of list wildcards cover.
+		 * @return size of list and number of elements set.
+		 */
+		private long[] bounds(final Element element, final int size) throws Exception {
+			int max = 0;
+			long count = 0;
+			for (Element child : element.children) {
+				if (child.reference == null && !hasHint(child) && element.typeArguments == null) {
+					throw new IllegalArgumentException("List elements should have hint.");
+				}
+				int last = last(child, size);
+				max = Math.max(max, last + 1);
+				count += last < 0 ? Integer.MAX_VALUE : last - first(child) + 1;
+			}
+			for (Element child : element.children) {
+				if (child.reference == null) {
+					child.type = elementType(element, child);
+				}
+			}
+			return new long[] {max, count};
+		}
+		/**
+		 * @return list creating its elements on access, the last element covering given index wins.
+		 */
+		private List lazy(final Element element, final int size) {
+			return new LazyList(size, new LazyList.Generator() {
+				@Override
+				public Object generate(final int index) throws Exception {
+					synchronized (MockBuilder.this) {
+						for (int i = element.children.size() - 1; i >= 0; i--) {
+							Element child = element.children.get(i);
+							if (first(child) <= index && index <= last(child, size)) {
+								return child.reference != null ? alias(child.reference) : buildTree(child, index);
+							}
+						}
+						return null;
+					}
+				}
+			}, Utils.LAZY_CACHE_SIZE);
+		}
+		/**
+		 * @return whether any value of given element's subtree is generated from index.
+		 */
+		private boolean isGenerated(final Element element) {
+			for (Element elem : Element.postOrder(element)) {
+				if (elem.value != null && elem.value.contains(INDEX)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * MapBuilder.
+	 */
+	private class MapBuilder extends AbstractElementBuiler {
+		@Override
+		public void create(final Frame frame) throws Exception {
+			Element element = frame.element;
+			if (element.children.isEmpty()) {
+				frame.obj = find(element, frame.index);
+				return;
+			}
+			Object[] keys = keys(element);
+			Class<?> keyType = null;
+			for (int i = 0; i < keys.length; i++) {
+				Class<?> type = keys[i] instanceof Enum ? ((Enum) keys[i]).getDeclaringClass()
+					: keys[i] != null ? keys[i].getClass() : null;
+				keyType = i == 0 || type == keyType ? type : null;
+			}
+			frame.obj = Utils.createMap(element.type, keys.length, keyType);
+			frame.keys = keys;
+		}
+		@Override
+		public void adopt(final Frame frame, final Object obj) throws Exception {
+			frame.obj = obj;
+			frame.keys = keys(frame.element);
+		}
+		@Override
+		public Object existing(final Frame frame, final Element child, final int position) {
+			return ((Map) frame.obj).get(frame.keys[frame.ordinal()]);
+		}
+		private Object[] keys(final Element element) throws Exception {
+			Object[] keys = new Object[element.children.size()];
+			for (int i = 0; i < keys.length; i++) {
+				Element child = element.children.get(i);
+				if (child.reference == null && !hasHint(child) && element.typeArguments == null) {
+					throw new IllegalArgumentException("Map elements should have hint.");
+				}
+				keys[i] = key(child, element.typeArguments);
+			}
+			return keys;
+		}
+		@Override
+		public void prepare(final Frame frame, final Element child) throws Exception {
+			if (child.reference == null) {
+				child.type = elementType(frame.element, child);
+			}
+		}
+		@Override
+		public void attach(final Frame frame, final Element child, final int position, final Object childObj) {
+			Object key = frame.keys[frame.ordinal()];
+			((Map) frame.obj).put(key, resolve(frame, child, key, childObj));
+		}
+	}
+
+	/**
+	 * @param <T>
+	 * @param type
+	 * @param settings
+	 * @param commonPackages
+	 * @param extraInterfaces
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T> T build(final Class<T> type, final String[] settings,
+			final String[] commonPackages, final Class<?>... extraInterfaces) throws Exception {
+		return build(type, settings, EnumSet.noneOf(Mode.class), commonPackages, extraInterfaces);
+	}
+
+	/**
+	 * @param <T>
+	 * @param type
+	 * @param settings
+	 * @param modes
+	 * @param commonPackages
+	 * @param extraInterfaces
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T> T build(final Class<T> type, final String[] settings, final Set<Mode> modes,
+			final String[] commonPackages, final Class<?>... extraInterfaces) throws Exception {
+		return (T) build(Parser.parse(type, settings, extraInterfaces), modes, commonPackages);
+	}
+
+	/**
+	 * Builds objects for all given variants of settings, parsing lines of their common prefixes once.
+	 *
+	 * @param <T>
+	 * @param type
+	 * @param variants variants of settings.
+	 * @param modes
+	 * @param commonPackages
+	 * @param extraInterfaces
+	 * @return objects built for variants, in their order.
+	 * @throws Exception
+	 */
+	public static <T> List<T> buildAll(final Class<T> type, final List<String[]> variants, final Set<Mode> modes,
+			final String[] commonPackages, final Class<?>... extraInterfaces) throws Exception {
+		List<T> objs = new ArrayList<T>(variants.size());
+		for (Element rootElement : Parser.parseAll(type, variants, extraInterfaces)) {
+			// variants share elements of their common prefix, building sets their types
+			objs.add((T) build(rootElement.copyTree(), modes, commonPackages));
+		}
+		return objs;
+	}
+
+	/**
+	 * @param <T>
+	 * @param type
+	 * @param variants
+	 * @param extraInterfaces
+	 * @return objects built for variants, in their order.
+	 * @throws Exception
+	 * @see #buildAll(Class, List, Set, String[], Class...)
+	 */
+	public static <T> List<T> buildAll(final Class<T> type, final List<String[]> variants,
+			final Class<?>... extraInterfaces) throws Exception {
+		return buildAll(type, variants, EnumSet.noneOf(Mode.class), new String[0], extraInterfaces);
+	}
+
+	/**
+	 * @param <T>
+	 * @param type root object type.
+	 * @param extraInterfaces
+	 * @return empty plan of settings given by recorded getter invocations.
+	 * @see Plan
+	 */
+	public static <T> Plan<T> of(final Class<T> type, final Class<?>... extraInterfaces) {
+		return new Plan<T>(type, extraInterfaces);
+	}
+
+	/**
+	 * Generates mock classes of all types built for given variants of settings in advance, e.g. while
+	 * other parts of test environment are set up, so that first builds do not pay for generating them.
+	 * Mockito keeps generated classes in memory of current JVM only.
+	 *
+	 * @param type
+	 * @param variants variants of settings.
+	 * @param commonPackages
+	 * @param extraInterfaces
+	 * @throws Exception when any variant has invalid settings, as building it would.
+	 */
+	public static void preload(final Class<?> type, final List<String[]> variants, final String[] commonPackages,
+			final Class<?>... extraInterfaces) throws Exception {
+		buildAll(type, variants, EnumSet.noneOf(Mode.class), commonPackages, extraInterfaces);
+	}
+
+	/**
+	 * @param rootElement parsed settings.
+	 * @param modes
+	 * @param commonPackages
+	 * @return built root object.
+	 * @throws Exception
+	 */
+	static Object build(final Element rootElement, final Set<Mode> modes, final String[] commonPackages)
+	throws Exception {
+		return new MockBuilder(rootElement, commonPackages, modes).root;
+	}
+
+	/**
+	 * @param <T>
+	 * @param type
+	 * @param settings
+	 * @param extraInterfaces
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T> T build(final Class<T> type, final String[] settings, final Class<?>... extraInterfaces)
+	throws Exception {
+		return build(type, settings, EnumSet.noneOf(Mode.class), new String[0], extraInterfaces);
+	}
+
+	/**
+	 * Applies additional settings onto object graph built before, building only objects they add
+	 * or replace; all other objects and stubbings are kept. Aliases can be declared and referred
+	 * within given settings only.
+	 *
+	 * @param <T>
+	 * @param root root of object graph built before.
+	 * @param settings additional settings.
+	 * @param commonPackages
+	 * @return given root.
+	 * @throws Exception
+	 */
+	public static <T> T apply(final T root, final String[] settings, final String[] commonPackages)
+	throws Exception {
+		MockBuilder builder = new MockBuilder(commonPackages, null, State.of(root) != null
+			? EnumSet.of(Mode.STATEFUL) : EnumSet.noneOf(Mode.class));
+		builder.root = builder.applyTree(Parser.parse(root.getClass(), settings), root);
+		builder.link();
+		return (T) builder.root;
+	}
+
+	/**
+	 * @param <T>
+	 * @param root
+	 * @param settings
+	 * @return given root.
+	 * @throws Exception
+	 * @see #apply(Object, String[], String[])
+	 */
+	public static <T> T apply(final T root, final String[] settings) throws Exception {
+		return apply(root, settings, new String[0]);
+	}
+
+}
@@ -1,201 +1,459 @@
-package mockbuilder;
-
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-/**
- * MockBuilder Parser.
- *
- * @author Tomasz Kisiel
- */
-class Parser {
-
-	private static Logger LOG = Logger.getLogger(Parser.class.getPackage().getName());
-
-	private final Map<String, List<Element>> elements = new HashMap<String, List<Element>>();
-
-
-	/**
-	 * @param type root object type.
-	 * @param settings settings.
-	 * @param extraInterfaces additional interfaces for root object.
-	 * @throws Exception .
-	 */
-	Parser(final Class<?> type, final String[] settings, final Class<?>... extraInterfaces) throws Exception {
-		for (String path : settings) {
-			parse(type, path, extraInterfaces);
-		}
-	}
-
-	/**
-	 * @param type root object type.
-	 * @param path path.
-	 * @param extraInterfaces additional interfaces for root object.
-	 * @throws Exception .
-	 */
-	private void parse(final Class<?> type, final String path, final Class<?>... extraInterfaces)
-	throws Exception {
-		String rootName = Utils.strip$$(type.getSimpleName());
-		Element root;
-		if (!this.elements.containsKey(rootName)) {
-			root = new Element(rootName, "");
-			root.type = type;
-			root.extraInterfaces = extraInterfaces;
-			this.elements.put(rootName, Arrays.asList(root));
-		}
-		root = this.elements.get(rootName).get(0);
-
-		String[] pathAndValue = path.split(" ?= ?");
-		String p = cleanPath(pathAndValue[0]);
-
-		Element current = root;
-		for (Iterator<String> it = Arrays.asList(p.split("-")).iterator(); it.hasNext();) {
-			String token = it.next();
-			String key = Utils.join(current.key, token);
-			if (!it.hasNext()) {
-				String value = pathAndValue.length > 1 ? pathAndValue[1] : null;
-				if ("*".equals(value)) {
-					if (findElement(key) != null) {
-						invalidateElements(key);
-					}
-					Element elem = newElementTree(token, current, true);
-					elem.value = value;
-					current = elem;
-				} else {
-					Element valueElem = new Element(token, current.key);
-					valueElem.value = value;
-					current.children.add(valueElem);
-				}
-			} else {
-				current = newElementTree(token, current);
-			}
-		}
-	}
-
-	private Element newElementTree(final String token, final Element current) {
-		return newElementTree(token, current, false);
-	}
-
-	private Element newElementTree(String token, Element current, final boolean isLast) {
-		String key = Utils.join(current.key, token);
-		String[] nameAndIndex = token.split("[\\[\\]]");
-		Element elem = findElement(key);
-		LOG.fine("Looking for " + key);
-		if (elem != null && (!isLast || nameAndIndex.length == 1)) {
-			LOG.fine("Exists " + key + "; " + elem);
-			return elem;
-		}
-		LOG.fine("New " + key);
-		elem = new Element(token, current.key);
-		if (nameAndIndex.length > 1) {
-			String akey = Utils.join(current.key, nameAndIndex[0]);
-			Element aelem = findElement(akey);
-			if (aelem == null) {
-				LOG.fine("New array " + Utils.join(current.key, nameAndIndex[0]));
-				aelem = new Element(nameAndIndex[0], current.key);
-				aelem.isArray = true;
-				current.children.add(aelem);
-				putElement(akey, aelem);
-			}
-			elem.index = nameAndIndex[1];
-			current = aelem;
-			if (findElement(key) != null && isLast) {
-				invalidateElements(key);
-			}
-		}
-		token = token.replaceAll("\\[([^\\]]+)<([^>]+)>\\]", "[$1|$2|]");
-		String[] nameAndHint = token.split("[<>]");
-		if (nameAndHint.length > 1) {
-			elem.hint = nameAndHint[1];
-		}
-		current.children.add(elem);
-		putElement(key, elem);
-		return elem;
-	}
-
-	private Element findElement(final String key) {
-		List<Element> elems = this.elements.get(key);
-		return elems == null ? null : elems.get(0);
-	}
-
-	private void putElement(final String key, final Element elem) {
-		List<Element> elems = Utils.getList(key, this.elements);
-		if (elems.size() > 0 && elems.get(0) == null) {
-			elems.set(0, elem);
-		} else {
-			elems.add(0, elem);
-		}
-	}
-
-	private void invalidateElements(final String key) {
-		Pattern p = Pattern.compile("^" + key.replaceAll("\\[", "\\\\[").replaceAll("\\]", "\\\\]"));
-		for (Entry<String, List<Element>> e : this.elements.entrySet()) {
-			if (p.matcher(e.getKey()).find()) {
-				LOG.fine("Invalidating " + e.getKey());
-				e.getValue().add(0, null);
-			}
-		}
-	}
-
-	/**
-	 * @param path path.
-	 * @return path with '.' in elements' delimiters replaced with '-'.
-	 * 		<br/>'.' in hints remain untouched.
-	 */
-	private String cleanPath(final String path) {
-		int prev = 0;
-		String cleaned = "";
-		Matcher mm = Pattern.compile("<[^>]+>").matcher(path);
-		while (mm.find()) {
-			cleaned += replace(path.substring(prev, mm.start()));
-			cleaned += path.substring(mm.start(), mm.end());
-			prev = mm.end();
-		}
-		return prev == 0 ? replace(path) : cleaned + replace(path.substring(prev));
-	}
-
-	/**
-	 * @param s string.
-	 * @return string with all '.' replaced with '-'.
-	 */
-	private String replace(final String s) {
-		return s.replace('.', '-');
-	}
-
-	/**
-	 * @return root element.
-	 */
-	Element root() {
-		List<String> keys = new ArrayList<String>(this.elements.keySet());
-		Collections.sort(keys, new Comparator<String>() {
-			@Override
-			public int compare(final String o1, final String o2) {
-				return o1.length() - o2.length();
-			}
-		});
-		return this.elements.get(keys.get(0)).get(0);
-	}
-
-	/**
-	 * @param type root object type.
-	 * @param settings settings.
-	 * @param extraInterfaces additional interfaces for root object.
-	 * @return root element.
-	 * @throws Exception .
-	 */
-	static Element parse(final Class<?> type, final String[] settings, final Class<?>... extraInterfaces)
-	throws Exception {
-		return new Parser(type, settings, extraInterfaces).root();
-	}
-
-}
+package mockbuilder;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MockBuilder Parser.
+ *
+ * @author Tomasz Kisiel
+ */
+class Parser {
+
+	private static final Logger LOG = Logger.getLogger(Parser.class.getPackage().getName());
+
+	private static final Pattern RANGE = Pattern.compile("(\\d+)\\.\\.(\\d+)");
+
+	private static final String WILDCARD = "*";
+
+	private static final Pattern REFERENCE = Pattern.compile("@(\\w+)");
+
+	private Element root;
+
+	/**
+	 * Current elements by their parents and tokens; elements replaced by resets are not reachable anymore.
+	 */
+	private final Map<Element, Map<String, Element>> elements = new IdentityHashMap<Element, Map<String, Element>>();
+
+	private final Map<String, String> aliases = new LinkedHashMap<String, String>();
+
+	private final List<Element> references = new ArrayList<Element>();
+
+	/**
+	 * Elements pointed by aliases.
+	 */
+	private final Map<String, Element> targets = new HashMap<String, Element>();
+
+	/**
+	 * Parser whose tree is extended, <code>null</code> when parsing from scratch.
+	 */
+	private final Parser base;
+
+	/**
+	 * Copies of base elements by base elements.
+	 */
+	private final Map<Element, Element> copies;
+
+	/**
+	 * Elements created or copied by this parser, which can be modified.
+	 */
+	private final Set<Element> owned;
+
+
+	/**
+	 * @param type root object type.
+	 * @param settings settings.
+	 * @param extraInterfaces additional interfaces for root object.
+	 * @throws Exception .
+	 */
+	Parser(final Class<?> type, final String[] settings, final Class<?>... extraInterfaces) throws Exception {
+		this(null, type, settings, true, extraInterfaces);
+	}
+
+	/**
+	 * Parses given settings as if they followed settings of given base parser, whose tree is left untouched.
+	 * Base elements are shared, only those on paths of given settings are copied.
+	 *
+	 * @param base parser whose tree is extended, <code>null</code> to parse from scratch.
+	 * @param type root object type.
+	 * @param settings settings.
+	 * @param link whether to resolve aliases, <code>false</code> when more settings follow.
+	 * @param extraInterfaces additional interfaces for root object.
+	 * @throws Exception .
+	 */
+	Parser(final Parser base, final Class<?> type, final String[] settings, final boolean link,
+			final Class<?>... extraInterfaces) throws Exception {
+		this.base = base;
+		this.copies = base == null ? null : new IdentityHashMap<Element, Element>();
+		this.owned = base == null ? null : Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+		if (base != null) {
+			this.aliases.putAll(base.aliases);
+			this.references.addAll(base.references);
+			this.root = base.root == null ? null : own(base.root);
+		}
+		for (String path : settings) {
+			parse(type, path, extraInterfaces);
+		}
+		if (link && !this.aliases.isEmpty()) {
+			link();
+		}
+	}
+
+	/**
+	 * @param type root object type.
+	 * @param path path.
+	 * @param extraInterfaces additional interfaces for root object.
+	 * @throws Exception .
+	 */
+	private void parse(final Class<?> type, final String path, final Class<?>... extraInterfaces)
+	throws Exception {
+		if (this.root == null) {
+			this.root = newElement(Utils.strip$$(type.getSimpleName()), null);
+			this.root.type = type;
+			this.root.extraInterfaces = extraInterfaces;
+		}
+
+		if (path.startsWith("#")) {
+			// comment
+			return;
+		}
+		String[] pathAndValue = path.split(" ?= ?");
+		if (pathAndValue[0].startsWith("@")) {
+			this.aliases.put(pathAndValue[0].substring(1), pathAndValue.length > 1 ? pathAndValue[1] : "");
+			return;
+		}
+		String p = cleanPath(pathAndValue[0]);
+
+		Element current = this.root;
+		for (Iterator<String> it = Arrays.asList(p.split("-")).iterator(); it.hasNext();) {
+			String token = it.next();
+			if (!it.hasNext()) {
+				String value = pathAndValue.length > 1 ? pathAndValue[1] : null;
+				if ("*".equals(value)) {
+					Element elem = newElementTree(token, current, true);
+					elem.value = value;
+					current = elem;
+				} else {
+					Element valueElem;
+					if (token.indexOf('[') >= 0) {
+						valueElem = newElementTree(token, current, true);
+					} else {
+						valueElem = newElement(Utils.intern(token), current);
+						current.add(valueElem);
+					}
+					valueElem.value = value;
+					if (value != null && REFERENCE.matcher(value).matches()) {
+						this.references.add(valueElem);
+					}
+				}
+			} else {
+				current = newElementTree(token, current);
+			}
+		}
+	}
+
+	/**
+	 * Marks elements pointed by aliases and elements referring to them.
+	 */
+	private void link() {
+		for (Entry<String, String> alias : this.aliases.entrySet()) {
+			Element target = this.root;
+			if (!alias.getValue().isEmpty()) {
+				for (String token : cleanPath(alias.getValue()).split("-")) {
+					target = target == null ? null : findElement(target, token);
+				}
+			}
+			if (target == null) {
+				throw new IllegalArgumentException("Cannot find element " + alias.getValue()
+					+ " for alias @" + alias.getKey());
+			}
+			Element previous = this.base == null ? null : this.base.targets.get(alias.getKey());
+			if (previous != null && current(previous) != target) {
+				// base alias target was replaced by reset
+				own(previous).alias = null;
+			}
+			if (!alias.getKey().equals(target.alias)) {
+				target = own(target);
+				target.alias = alias.getKey();
+			}
+			this.targets.put(alias.getKey(), target);
+		}
+		for (Element elem : this.references) {
+			String alias = elem.value.substring(1);
+			if (this.aliases.containsKey(alias) && !alias.equals(elem.reference)) {
+				own(elem).reference = alias;
+			}
+		}
+	}
+
+	private Element newElementTree(final String token, final Element current) {
+		return newElementTree(token, current, false);
+	}
+
+	/**
+	 * @param token path token.
+	 * @param current parent element.
+	 * @param isLast whether to replace existing element (and all its children) with new one.
+	 * @return element for given token.
+	 */
+	private Element newElementTree(final String token, final Element current, final boolean isLast) {
+		Element elem = isLast ? null : findElement(current, token);
+		if (elem != null) {
+			return adopt(current, token, elem);
+		}
+		int open = token.indexOf('[');
+		int close = open < 0 ? -1 : token.indexOf(']', open);
+		Element parent = current;
+		if (open >= 0) {
+			String name = Utils.intern(token.substring(0, open));
+			parent = findElement(current, name);
+			if (parent == null) {
+				parent = newElement(name, current);
+				parent.isArray = true;
+				current.add(parent);
+				putElement(current, name, parent);
+				log("New array ", parent);
+			} else {
+				parent = adopt(current, name, parent);
+			}
+		}
+		elem = newElement(open < 0 ? Utils.intern(token) : token, parent);
+		if (open >= 0) {
+			elem.index = token.substring(open + 1, close < 0 ? token.length() : close);
+			range(elem);
+		}
+		int lt = token.indexOf('<', close + 1);
+		if (lt >= 0) {
+			int gt = token.indexOf('>', lt);
+			elem.hint = Utils.intern(token.substring(lt + 1, gt < 0 ? token.length() : gt));
+		}
+		parent.add(elem);
+		putElement(current, token, elem);
+		log("New ", elem);
+		return elem;
+	}
+
+	private void range(final Element elem) {
+		if (WILDCARD.equals(elem.index)) {
+			elem.from = 0;
+			return;
+		}
+		Matcher m = RANGE.matcher(elem.index);
+		if (m.matches()) {
+			elem.from = Integer.parseInt(m.group(1));
+			elem.to = Integer.parseInt(m.group(2));
+			if (elem.from > elem.to) {
+				throw new IllegalArgumentException("Invalid range " + elem.key());
+			}
+		}
+	}
+
+	private Element findElement(final Element parent, final String token) {
+		Map<String, Element> elems = registrations(parent);
+		return elems == null ? null : current(elems.get(token));
+	}
+
+	/**
+	 * @return elements registered under given parent by this or base parser.
+	 */
+	private Map<String, Element> registrations(final Element parent) {
+		Map<String, Element> elems = this.elements.get(parent);
+		return elems != null || this.base == null ? elems : this.base.registrations(parent);
+	}
+
+	private Element newElement(final String name, final Element parent) {
+		Element elem = new Element(name, parent);
+		if (this.owned != null) {
+			this.owned.add(elem);
+		}
+		return elem;
+	}
+
+	/**
+	 * @return given element found under given parent and token, copied when it belongs to base tree.
+	 */
+	private Element adopt(final Element parent, final String token, final Element elem) {
+		Element own = own(elem);
+		if (own != elem) {
+			putElement(parent, token, own);
+		}
+		return own;
+	}
+
+	/**
+	 * @return current version of given element, the latest copy of it made by this or base parsers.
+	 */
+	private Element current(final Element elem) {
+		if (this.base == null || elem == null) {
+			return elem;
+		}
+		Element latest = this.base.current(elem);
+		Element copy = this.copies.get(latest);
+		return copy != null ? copy : latest;
+	}
+
+	/**
+	 * @return current version of given element when it can be modified, otherwise its copy put in place
+	 * 		of it, together with copies of all its base ancestors.
+	 */
+	private Element own(final Element elem) {
+		if (this.base == null) {
+			return elem;
+		}
+		Deque<Element> path = new ArrayDeque<Element>();
+		Element parent = null;
+		// parents of shared elements point to trees they were created in
+		for (Element e = elem; e != null; e = e.parent) {
+			Element current = current(e);
+			if (this.owned.contains(current)) {
+				parent = current;
+				break;
+			}
+			path.push(current);
+		}
+		while (!path.isEmpty()) {
+			Element orig = path.pop();
+			Element copy = orig.copy(parent);
+			if (parent != null) {
+				for (int i = 0; i < parent.children.size(); i++) {
+					if (parent.children.get(i) == orig) {
+						parent.children.set(i, copy);
+					}
+				}
+			}
+			Map<String, Element> elems = registrations(orig);
+			if (elems != null) {
+				this.elements.put(copy, new HashMap<String, Element>(elems));
+			}
+			this.copies.put(orig, copy);
+			this.owned.add(copy);
+			parent = copy;
+		}
+		return parent;
+	}
+
+	private void putElement(final Element parent, final String token, final Element elem) {
+		Map<String, Element> elems = this.elements.get(parent);
+		if (elems == null) {
+			elems = new HashMap<String, Element>(4);
+			this.elements.put(parent, elems);
+		}
+		elems.put(token, elem);
+	}
+
+	private void log(final String msg, final Element elem) {
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine(msg + elem.key());
+		}
+	}
+
+	/**
+	 * @param path path.
+	 * @return path with '.' in elements' delimiters replaced with '-'.
+	 * 		<br/>'.' in hints and indexes remain untouched.
+	 */
+	private String cleanPath(final String path) {
+		int prev = 0;
+		String cleaned = "";
+		Matcher mm = Pattern.compile("<[^>]+>|\\[[^\\]]*\\]").matcher(path);
+		while (mm.find()) {
+			cleaned += replace(path.substring(prev, mm.start()));
+			cleaned += path.substring(mm.start(), mm.end());
+			prev = mm.end();
+		}
+		return prev == 0 ? replace(path) : cleaned + replace(path.substring(prev));
+	}
+
+	/**
+	 * @param s string.
+	 * @return string with all '.' replaced with '-'.
+	 */
+	private String replace(final String s) {
+		return s.replace('.', '-');
+	}
+
+	/**
+	 * @return root element.
+	 */
+	Element root() {
+		return this.root;
+	}
+
+	/**
+	 * @param type root object type.
+	 * @param settings settings.
+	 * @param extraInterfaces additional interfaces for root object.
+	 * @return root element.
+	 * @throws Exception .
+	 */
+	static Element parse(final Class<?> type, final String[] settings, final Class<?>... extraInterfaces)
+	throws Exception {
+		return new Parser(type, settings, extraInterfaces).root();
+	}
+
+	/**
+	 * Parses all given variants of settings; lines of their common prefixes are parsed once
+	 * and elements parsed from them are shared.
+	 *
+	 * @param type root object type.
+	 * @param variants variants of settings.
+	 * @param extraInterfaces additional interfaces for root object.
+	 * @return root elements of variants, in their order.
+	 * @throws Exception .
+	 */
+	@SuppressWarnings("unchecked")
+	static List<Element> parseAll(final Class<?> type, final List<String[]> variants,
+			final Class<?>... extraInterfaces) throws Exception {
+		if (variants.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Element[] roots = new Element[variants.size()];
+		List<Integer> all = new ArrayList<Integer>(roots.length);
+		for (int i = 0; i < roots.length; i++) {
+			all.add(i);
+		}
+		// groups of variants sharing prefix parsed by parser, with length of the prefix
+		Deque<Object[]> stack = new ArrayDeque<Object[]>();
+		stack.push(new Object[] {null, all, 0});
+		while (!stack.isEmpty()) {
+			Object[] group = stack.pop();
+			List<Integer> indexes = (List<Integer>) group[1];
+			int offset = (Integer) group[2];
+			String[] first = variants.get(indexes.get(0));
+			int end = offset;
+			common: for (; end < first.length; end++) {
+				for (int i : indexes) {
+					String[] settings = variants.get(i);
+					if (settings.length <= end || !settings[end].equals(first[end])) {
+						break common;
+					}
+				}
+			}
+			Parser parser = new Parser((Parser) group[0], type, Arrays.copyOfRange(first, offset, end), false,
+				extraInterfaces);
+			Parser linked = null;
+			Map<String, List<Integer>> next = new LinkedHashMap<String, List<Integer>>();
+			for (int i : indexes) {
+				String[] settings = variants.get(i);
+				if (settings.length > end) {
+					Utils.getList(settings[end], next).add(i);
+				} else {
+					if (linked == null) {
+						linked = parser.aliases.isEmpty() ? parser : new Parser(parser, type, new String[0], true);
+					}
+					roots[i] = linked.root();
+				}
+			}
+			for (List<Integer> rest : next.values()) {
+				stack.push(new Object[] {parser, rest, end});
+			}
+		}
+		return Arrays.asList(roots);
+	}
+
+}
@@ -0,0 +1,344 @@
+package mockbuilder;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.mockito.Mockito;
+
+/**
+ * Paths.
+ * <p>
+ * Reads and sets values at paths of settings in built object graphs:
+ * <pre>
+ * int i = Paths.get(a, "b.cmap[KEY].int");
+ * Paths.set(a, "b.c.int", 5);
+ * </pre>
+ * Paths are compiled once into chains of steps; each step keeps getter found for the last type it met,
+ * so repeated queries invoke getters without looking them up. Bounded number of recently used paths
+ * is kept compiled. Hints of paths are ignored, except hints of map keys.
+ *
+ * @author Tomasz Kisiel
+ */
+public final class Paths {
+
+	private static final int PATH_CACHE_SIZE = Integer.getInteger("mockbuilder.pathCacheSize", 1024);
+
+	/** recently used compiled paths, spread over stripes locked separately. */
+	private static final Map<String, Step[]>[] PATHS = paths();
+
+	private Paths() {
+	}
+
+	/**
+	 * @param <V>
+	 * @param root root object.
+	 * @param path path.
+	 * @return value at given path.
+	 * @throws Exception when path does not match graph, or any object on path is <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> V get(final Object root, final String path) throws Exception {
+		Step[] steps = compile(path);
+		Object obj = root;
+		for (Step step : steps) {
+			if (obj == null) {
+				throw new IllegalStateException(step.parent + " is null.");
+			}
+			obj = step.get(obj);
+		}
+		return (V) obj;
+	}
+
+	/**
+	 * Sets value at given path: stubs getter of mock, sets property of populated object, or replaces
+	 * collection element.
+	 *
+	 * @param root root object.
+	 * @param path path.
+	 * @param value value.
+	 * @throws Exception when path does not match graph, or any object on path is <code>null</code>.
+	 */
+	public static void set(final Object root, final String path, final Object value) throws Exception {
+		Step[] steps = compile(path);
+		Object[] objs = new Object[steps.length];
+		Object obj = root;
+		for (int i = 0; i < steps.length; i++) {
+			if (obj == null) {
+				throw new IllegalStateException(steps[i].parent + " is null.");
+			}
+			objs[i] = obj;
+			if (i < steps.length - 1) {
+				obj = steps[i].get(obj);
+			}
+		}
+		Object replaced = steps[steps.length - 1].set(objs[steps.length - 1], value);
+		// lists which cannot be changed in place are replaced by their copies
+		for (int i = steps.length - 2; i >= 0 && replaced != objs[i + 1]; i--) {
+			replaced = steps[i].set(objs[i], replaced);
+		}
+	}
+
+	/**
+	 * @return steps of given path, compiled once while it is used recently.
+	 */
+	private static Step[] compile(final String path) {
+		Map<String, Step[]> cache = PATHS[(path.hashCode() & Integer.MAX_VALUE) % PATHS.length];
+		Step[] steps;
+		synchronized (cache) {
+			steps = cache.get(path);
+		}
+		if (steps == null) {
+			steps = parse(path);
+			synchronized (cache) {
+				cache.put(path, steps);
+			}
+		}
+		return steps;
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static Map<String, Step[]>[] paths() {
+		Map<String, Step[]>[] stripes = new Map[Math.max(Math.min(Utils.VALUE_CACHE_STRIPES, PATH_CACHE_SIZE), 1)];
+		final int stripeSize = PATH_CACHE_SIZE / stripes.length;
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new LinkedHashMap<String, Step[]>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, Step[]> eldest) {
+					return size() > stripeSize;
+				}
+			};
+		}
+		return stripes;
+	}
+
+	private static Step[] parse(final String path) {
+		List<Step> steps = new ArrayList<Step>();
+		String parent = "root";
+		int i = 0;
+		while (i < path.length()) {
+			int start = i;
+			int count = steps.size();
+			while (i < path.length() && path.charAt(i) != '.' && path.charAt(i) != '[' && path.charAt(i) != '<') {
+				i++;
+			}
+			if (i > start) {
+				steps.add(new Property(parent, path.substring(start, i)));
+			}
+			i = skipHint(path, i);
+			while (i < path.length() && path.charAt(i) == '[') {
+				int close = path.indexOf(']', i);
+				if (close < 0) {
+					throw new IllegalArgumentException("Invalid path " + path);
+				}
+				steps.add(new Index(i == 0 ? parent : path.substring(0, i), path.substring(i + 1, close)));
+				i = skipHint(path, close + 1);
+			}
+			if (i < path.length() && path.charAt(i) != '.' || steps.size() == count) {
+				throw new IllegalArgumentException("Invalid path " + path);
+			}
+			parent = path.substring(0, i);
+			i++;
+		}
+		if (steps.isEmpty()) {
+			throw new IllegalArgumentException("Invalid path " + path);
+		}
+		return steps.toArray(new Step[steps.size()]);
+	}
+
+	private static int skipHint(final String path, final int i) {
+		if (i < path.length() && path.charAt(i) == '<') {
+			int gt = path.indexOf('>', i);
+			if (gt < 0) {
+				throw new IllegalArgumentException("Invalid path " + path);
+			}
+			return gt + 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Step.
+	 * <p>
+	 * Getter, or element of array, list or map.
+	 */
+	private abstract static class Step {
+		/** path of object step is made on, for messages. */
+		final String parent;
+		Step(final String parent) {
+			this.parent = parent;
+		}
+		abstract Object get(Object obj) throws Exception;
+		/**
+		 * @return given object, or its copy when it cannot be changed in place.
+		 */
+		abstract Object set(Object obj, Object value) throws Exception;
+	}
+
+	/**
+	 * Property.
+	 */
+	private static final class Property extends Step {
+		private final String name;
+		/** getter of type met last. */
+		private volatile Getter cached;
+		Property(final String parent, final String name) {
+			super(parent);
+			this.name = Utils.intern(name);
+		}
+		@Override
+		Object get(final Object obj) throws Exception {
+			return getter(obj.getClass()).invoke(obj);
+		}
+		@Override
+		Object set(final Object obj, final Object value) throws Exception {
+			State state = State.of(obj);
+			if (state != null) {
+				state.stub(this.name, value, false);
+				return obj;
+			}
+			// populated objects are not mocks, their classes are not generated
+			Bean bean = obj.getClass().getName().contains("$$") ? null : Bean.of(obj.getClass());
+			if (bean != null) {
+				if (bean.isRecord()) {
+					throw new IllegalArgumentException("Cannot set property " + this.name + " of record.");
+				}
+				bean.property(this.name).set(obj, value);
+			} else {
+				// stubbed without invoking getter, which would consume its current answers
+				getter(obj.getClass()).invoke(Mockito.doReturn(value).when(obj));
+			}
+			return obj;
+		}
+		private Method getter(final Class<?> type) throws Exception {
+			Getter getter = this.cached;
+			if (getter == null || getter.type != type) {
+				Method method = Utils.getter(type, this.name);
+				method.setAccessible(true);
+				getter = new Getter(type, method);
+				this.cached = getter;
+			}
+			return getter.method;
+		}
+	}
+
+	/**
+	 * Getter.
+	 */
+	private static final class Getter {
+		final Class<?> type;
+		final Method method;
+		Getter(final Class<?> type, final Method method) {
+			this.type = type;
+			this.method = method;
+		}
+	}
+
+	/**
+	 * Index.
+	 * <p>
+	 * Element of array or list, or value of map.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static final class Index extends Step {
+		private final String index;
+		/** position in array or list, -1 when index is not a number. */
+		private final int position;
+		/** type of key given by its hint, <code>null</code> if none. */
+		private final String hint;
+		/** key converted for type of keys met last. */
+		private volatile Key cached;
+		Index(final String parent, final String index) {
+			super(parent);
+			int lt = index.indexOf('<');
+			this.index = lt < 0 ? index : index.substring(0, lt);
+			this.hint = lt < 0 ? null : index.substring(lt + 1, index.indexOf('>', lt) < 0 ? index.length()
+				: index.indexOf('>', lt));
+			this.position = this.index.matches("\\d+") ? Integer.parseInt(this.index) : -1;
+		}
+		@Override
+		Object get(final Object obj) throws Exception {
+			if (obj instanceof Map) {
+				return ((Map) obj).get(key((Map) obj));
+			} else if (obj instanceof List) {
+				return ((List) obj).get(position(obj));
+			}
+			return Array.get(obj, position(obj));
+		}
+		@Override
+		Object set(final Object obj, final Object value) throws Exception {
+			if (obj instanceof Map) {
+				((Map) obj).put(key((Map) obj), value);
+			} else if (obj instanceof List) {
+				List list = Utils.grow((List) obj, position(obj) + 1);
+				list.set(this.position, value);
+				return list;
+			} else {
+				Array.set(obj, position(obj), value);
+			}
+			return obj;
+		}
+		private int position(final Object obj) {
+			if (this.position < 0 || !(obj instanceof List) && !obj.getClass().isArray()) {
+				throw new IllegalArgumentException("Cannot find element [" + this.index + "] of " + this.parent);
+			}
+			return this.position;
+		}
+		/**
+		 * @return key converted to type given by hint, or to type of keys of given map; string otherwise.
+		 * 		Sorted maps cannot be queried with keys of other types, so the type is found first.
+		 */
+		private Object key(final Map map) throws Exception {
+			Class<?> type;
+			if (this.hint != null) {
+				Key key = this.cached;
+				type = key != null ? key.type : Utils.asType(this.hint, Utils.COMMON_PACKAGES);
+			} else {
+				type = keyType(map);
+				if (type == null || type == String.class) {
+					return this.index;
+				}
+			}
+			Key key = this.cached;
+			if (key == null || key.type != type) {
+				if (Utils.converter(type) == Utils.NONE && map instanceof SortedMap) {
+					throw new IllegalArgumentException("Cannot find element [" + this.index + "] of " + this.parent
+						+ ", its keys are not converted from strings.");
+				}
+				key = new Key(type, Utils.converter(type) == Utils.NONE ? this.index
+					: Utils.createValue(this.index, type));
+				this.cached = key;
+			}
+			return key.value;
+		}
+		/**
+		 * @return type of first non-null key of given map, <code>null</code> if there is none.
+		 */
+		private static Class<?> keyType(final Map map) {
+			for (Object key : map.keySet()) {
+				if (key != null) {
+					return key instanceof Enum ? ((Enum) key).getDeclaringClass() : key.getClass();
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Key.
+	 */
+	private static final class Key {
+		final Class<?> type;
+		final Object value;
+		Key(final Class<?> type, final Object value) {
+			this.type = type;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,408 @@
+package mockbuilder;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import mockbuilder.MockBuilder.Mode;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Plan.
+ * <p>
+ * Settings given by getter invocations recorded on proxies instead of strings, checked by compiler
+ * and put into the same element tree parser builds, without parsing:
+ * <pre>
+ * Plan&lt;A&gt; plan = MockBuilder.of(A.class);
+ * plan.set(plan.on().getB().getC().getInt(), 456);
+ * plan.set(plan.at(plan.on().getB().getCl(), 0, C.class).getString(), "abc");
+ * A a = plan.build();
+ * </pre>
+ * Getters of final types and collections return default values, so they can only end recorded paths.
+ *
+ * @author Tomasz Kisiel
+ */
+public final class Plan<T> {
+
+	/** literals builder reads as something else than themselves. */
+	private static final Pattern SPECIAL = Pattern.compile("null|\\*|.*(\\$\\{i\\}|[<>]).*", Pattern.DOTALL);
+
+	private final Class<T> type;
+
+	private final Element root;
+
+	/**
+	 * Current elements by their parents and tokens, like ones of {@link Parser}.
+	 */
+	private final Map<Element, Map<String, Element>> elements = new IdentityHashMap<Element, Map<String, Element>>();
+
+	/** proxies recording getters invoked on them, by their types. */
+	private final Map<Class<?>, Object> proxies = new HashMap<Class<?>, Object>();
+
+	private final Recorder recorder = new Recorder();
+
+	/** path recorded last, extended by each recorded getter invocation, <code>null</code> once used. */
+	private List<Step> recorded;
+
+	/** object returned for the last step of recorded path. */
+	private Object returned;
+
+	/** whether object returned for the last step is compared by identity, not as a default value. */
+	private boolean identical;
+
+
+	Plan(final Class<T> type, final Class<?>... extraInterfaces) {
+		this.type = type;
+		this.root = new Element(type.getSimpleName(), null);
+		this.root.type = type;
+		this.root.extraInterfaces = extraInterfaces;
+	}
+
+	/**
+	 * @return proxy of root object recording getters invoked on it and on objects they return;
+	 * 		proxies are shared, so each setting should be recorded by one chain of invocations.
+	 */
+	public T on() {
+		return proxy(this.type, new ArrayList<Step>());
+	}
+
+	/**
+	 * @param <E>
+	 * @param collection recorded array or list.
+	 * @param index index.
+	 * @param type element type.
+	 * @return proxy of collection element recording getters invoked on it.
+	 */
+	public <E> E at(final Object collection, final int index, final Class<E> type) {
+		return slot(collection, String.valueOf(index), -1, -1, type);
+	}
+
+	/**
+	 * @param <E>
+	 * @param collection recorded array or list.
+	 * @param from first index.
+	 * @param to last index.
+	 * @param type element type.
+	 * @return proxy of collection elements recording getters invoked on them.
+	 */
+	public <E> E range(final Object collection, final int from, final int to, final Class<E> type) {
+		if (from < 0 || from > to) {
+			throw new IllegalArgumentException("Invalid range " + from + ".." + to);
+		}
+		return slot(collection, from + ".." + to, from, to, type);
+	}
+
+	/**
+	 * @param <E>
+	 * @param collection recorded array or list.
+	 * @param type element type.
+	 * @return proxy of all collection elements recording getters invoked on them.
+	 */
+	public <E> E each(final Object collection, final Class<E> type) {
+		return slot(collection, "*", 0, -1, type);
+	}
+
+	/**
+	 * @param <E>
+	 * @param map recorded map.
+	 * @param key key, {@link String} or value convertible from string.
+	 * @param type entry value type.
+	 * @return proxy of map entry value recording getters invoked on it.
+	 */
+	public <E> E entry(final Object map, final Object key, final Class<E> type) {
+		String index = value(key);
+		if (key == null || index.indexOf(']') >= 0) {
+			throw new IllegalArgumentException("Cannot use key " + key + " of map entry.");
+		}
+		return slot(map, key instanceof String ? index : index + "<" + key.getClass().getName() + ">", -1, -1,
+			type);
+	}
+
+	/**
+	 * @param <V>
+	 * @param getter recorded getter invocation.
+	 * @param value value returned by getter, {@link String} or value convertible from string;
+	 * 		strings <code>"null"</code>, <code>"*"</code>, and ones with <code>${i}</code>, <code>&lt;</code>
+	 * 		or <code>&gt;</code> are read as something else by builder, so they cannot be set.
+	 * @return this plan.
+	 */
+	public <V> Plan<T> set(final V getter, final V value) {
+		leaf(getter).value = value(value);
+		return this;
+	}
+
+	/**
+	 * Replaces element at recorded path by default one, dropping all its settings.
+	 *
+	 * @param getter recorded getter invocation.
+	 * @return this plan.
+	 */
+	public Plan<T> reset(final Object getter) {
+		List<Step> path = use(getter);
+		if (path.isEmpty()) {
+			throw new IllegalArgumentException("Root object cannot be reset.");
+		}
+		Step last = path.get(path.size() - 1);
+		Element parent = element(path.subList(0, path.size() - 1));
+		Element elem = last.index == null ? newElement(parent, last) : slot(parent, last);
+		register(parent, last.token(), elem);
+		elem.value = "*";
+		return this;
+	}
+
+	/**
+	 * @param getter recorded getter invocation, or recorded root object.
+	 * @param alias alias of object at recorded path.
+	 * @return this plan.
+	 */
+	public Plan<T> alias(final Object getter, final String alias) {
+		element(use(getter)).alias = alias;
+		return this;
+	}
+
+	/**
+	 * @param getter recorded getter invocation.
+	 * @param alias alias of object returned by getter.
+	 * @return this plan.
+	 */
+	public Plan<T> refer(final Object getter, final String alias) {
+		Element elem = leaf(getter);
+		elem.value = "@" + alias;
+		elem.reference = alias;
+		return this;
+	}
+
+	/**
+	 * @param modes
+	 * @param commonPackages
+	 * @return built root object.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public T build(final Set<Mode> modes, final String[] commonPackages) throws Exception {
+		return (T) MockBuilder.build(this.root, modes, commonPackages);
+	}
+
+	/**
+	 * @return built root object.
+	 * @throws Exception
+	 */
+	public T build() throws Exception {
+		return build(EnumSet.noneOf(Mode.class), new String[0]);
+	}
+
+	/**
+	 * @return root of element tree.
+	 */
+	Element root() {
+		return this.root;
+	}
+
+	/**
+	 * @return new element at recorded path, subsequent one when the same getter is set again.
+	 */
+	private Element leaf(final Object getter) {
+		List<Step> path = use(getter);
+		if (path.isEmpty()) {
+			throw new IllegalArgumentException("Root object cannot be set.");
+		}
+		Step last = path.get(path.size() - 1);
+		Element parent = element(path.subList(0, path.size() - 1));
+		if (last.index == null) {
+			return newElement(parent, last);
+		}
+		Element elem = slot(parent, last);
+		register(parent, last.token(), elem);
+		return elem;
+	}
+
+	/**
+	 * @return element at given path, created when missing.
+	 */
+	private Element element(final List<Step> path) {
+		Element current = this.root;
+		for (Step step : path) {
+			Element elem = registered(current, step.token());
+			if (elem == null) {
+				elem = step.index == null ? newElement(current, step) : slot(current, step);
+				register(current, step.token(), elem);
+			}
+			current = elem;
+		}
+		return current;
+	}
+
+	private Element newElement(final Element parent, final Step step) {
+		Element elem = new Element(step.name, parent);
+		parent.add(elem);
+		return elem;
+	}
+
+	/**
+	 * @return new element of collection of given step, collection is created when missing.
+	 */
+	private Element slot(final Element parent, final Step step) {
+		Element collection = registered(parent, step.name);
+		if (collection == null) {
+			collection = new Element(step.name, parent);
+			collection.isArray = true;
+			parent.add(collection);
+			register(parent, step.name, collection);
+		}
+		Element elem = new Element(step.token(), collection);
+		elem.index = step.index;
+		elem.hint = step.hint;
+		elem.from = step.from;
+		elem.to = step.to;
+		collection.add(elem);
+		return elem;
+	}
+
+	private Element registered(final Element parent, final String token) {
+		Map<String, Element> elems = this.elements.get(parent);
+		return elems == null ? null : elems.get(token);
+	}
+
+	private void register(final Element parent, final String token, final Element elem) {
+		Map<String, Element> elems = this.elements.get(parent);
+		if (elems == null) {
+			elems = new HashMap<String, Element>();
+			this.elements.put(parent, elems);
+		}
+		elems.put(token, elem);
+	}
+
+	/**
+	 * @param given object given as returned by the last recorded getter invocation.
+	 * @return path recorded last, which cannot be used again.
+	 * @throws IllegalStateException when given object is not the one returned for the path.
+	 */
+	private List<Step> use(final Object given) {
+		List<Step> path = this.recorded;
+		if (path == null) {
+			throw new IllegalStateException("No getter invocation recorded, use proxy returned by on().");
+		} else if (given != this.returned && (this.identical || given == null || !given.equals(this.returned))) {
+			throw new IllegalStateException("Given object was not returned by getter invocation recorded last.");
+		}
+		this.recorded = null;
+		this.returned = null;
+		return path;
+	}
+
+	/**
+	 * @param from first index of range, -1 if index is not a range.
+	 * @param to last index of range, -1 for all indexes from first one.
+	 * @return proxy of element of collection recorded last.
+	 */
+	private <E> E slot(final Object collection, final String index, final int from, final int to,
+			final Class<E> type) {
+		List<Step> path = use(collection);
+		if (path.isEmpty() || path.get(path.size() - 1).index != null) {
+			throw new IllegalArgumentException("Getter of collection should be recorded.");
+		}
+		Step step = path.remove(path.size() - 1);
+		path.add(new Step(step.name, index, type.getName(), from, to));
+		return proxy(type, path);
+	}
+
+	/**
+	 * @return proxy of given type, recording getter invocations as further steps of given path.
+	 */
+	private <E> E proxy(final Class<E> type, final List<Step> path) {
+		Object proxy = this.proxies.get(type);
+		if (proxy == null) {
+			proxy = Utils.mock(type, this.recorder);
+			this.proxies.put(type, proxy);
+		}
+		this.recorded = path;
+		this.returned = proxy;
+		this.identical = true;
+		return type.cast(proxy);
+	}
+
+	/**
+	 * @return given value as string converted back to it by {@link Utils#createValue}.
+	 */
+	private static String value(final Object value) {
+		if (value != null && !(value instanceof Enum) && Utils.converter(value.getClass()) == Utils.NONE) {
+			throw new IllegalArgumentException("Cannot set value " + value + ", refer to its alias instead.");
+		}
+		String literal = Utils.literal(value);
+		if (value != null && SPECIAL.matcher(literal).matches()) {
+			throw new IllegalArgumentException("Cannot set value " + literal + ", builder reads it as other value.");
+		}
+		return literal;
+	}
+
+	/**
+	 * Step.
+	 * <p>
+	 * Getter, or element of collection returned by getter.
+	 */
+	private static final class Step {
+		final String name;
+		final String index;
+		final String hint;
+		/** range of indexes, like the ones of {@link Element}. */
+		final int from;
+		final int to;
+		Step(final String name, final String index, final String hint) {
+			this(name, index, hint, -1, -1);
+		}
+		Step(final String name, final String index, final String hint, final int from, final int to) {
+			this.name = name;
+			this.index = index;
+			this.hint = hint;
+			this.from = from;
+			this.to = to;
+		}
+		/**
+		 * @return token of this step in settings path.
+		 */
+		String token() {
+			return this.index == null ? this.name : this.name + "[" + this.index + "]<" + this.hint + ">";
+		}
+	}
+
+	/**
+	 * Recorder.
+	 * <p>
+	 * Answers getter invocations with proxies extending recorded path.
+	 */
+	private final class Recorder implements Answer<Object> {
+		@Override
+		public Object answer(final InvocationOnMock invocation) throws Throwable {
+			String name = invocation.getMethod().getName();
+			if (!name.startsWith("get") || name.length() == 3 || invocation.getArguments().length > 0) {
+				return Mockito.RETURNS_DEFAULTS.answer(invocation);
+			}
+			List<Step> path = Plan.this.recorded;
+			if (path == null) {
+				throw new IllegalStateException("Path recorded by proxy was already used, start again with on().");
+			}
+			path.add(new Step(Utils.intern(name.substring(3, 4).toLowerCase() + name.substring(4)), null, null));
+			Class<?> type = invocation.getMethod().getReturnType();
+			if (type.isPrimitive() || type.isArray() || type.isEnum() || Modifier.isFinal(type.getModifiers())
+					|| List.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+				// default answer gives int zero for any primitive number
+				Object value = type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0)
+					: Mockito.RETURNS_DEFAULTS.answer(invocation);
+				Plan.this.returned = value;
+				Plan.this.identical = value instanceof List || value instanceof Map;
+				return value;
+			}
+			return proxy(type, path);
+		}
+	}
+
+}
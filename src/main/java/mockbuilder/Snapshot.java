@@ -0,0 +1,352 @@
+package mockbuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Snapshot.
+ * <p>
+ * Writes settings rebuilding given object graph, read through getters like {@link Verifier} reads it.
+ * Settings are written one by one while walking the graph; objects reached again are referred by aliases.
+ * <pre>
+ * Writer out = new OutputStreamWriter(new FileOutputStream("request.settings"), "UTF-8");
+ * new Snapshot().depth(8).exclude(Logger.class).write(request, out);
+ * </pre>
+ * Values which settings cannot express, like strings with <code>=</code> or control characters, are written
+ * as <code>#</code> comments, which parser skips.
+ *
+ * @author Tomasz Kisiel
+ */
+public final class Snapshot {
+
+	private static final ConcurrentMap<Class<?>, List<Method>> GETTERS = new ConcurrentHashMap<Class<?>, List<Method>>();
+
+	/** strings read by parser as something else than themselves. */
+	private static final Pattern SPECIAL = Pattern.compile("null|\\*|@\\w+|.*(\\$\\{i\\}|[=<>\\p{Cntrl}]).*",
+		Pattern.DOTALL);
+
+	/** indexes read by parser as something else than themselves. */
+	private static final Pattern SPECIAL_INDEX = Pattern.compile("\\*|\\d+\\.\\.\\d+|.*[\\[\\]=<>\\p{Cntrl}].*",
+		Pattern.DOTALL);
+
+	private int depth = Integer.MAX_VALUE;
+
+	private final List<Class<?>> excluded = new ArrayList<Class<?>>();
+
+	private Writer out;
+
+	/** nodes of objects written, by the objects. */
+	private Map<Object, Node> visited;
+
+	private final List<Node> aliased = new ArrayList<Node>();
+
+
+	/**
+	 * @param depth maximal number of getters and indexes on paths of settings, objects deeper are left out.
+	 * @return this snapshot.
+	 */
+	public Snapshot depth(final int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * @param types types which instances are left out, with objects they refer to.
+	 * @return this snapshot.
+	 */
+	public Snapshot exclude(final Class<?>... types) {
+		Collections.addAll(this.excluded, types);
+		return this;
+	}
+
+	/**
+	 * Writes settings rebuilding given object, one per line.
+	 *
+	 * @param root root object.
+	 * @param out writer of settings.
+	 * @throws Exception when getters fail to be read.
+	 */
+	public void write(final Object root, final Writer out) throws Exception {
+		if (root.getClass().isArray() || root instanceof List || root instanceof Map
+				|| Utils.converter(type(root)) != Utils.NONE) {
+			throw new IllegalArgumentException("Cannot write snapshot of " + root.getClass().getName());
+		}
+		this.out = out;
+		this.visited = new IdentityHashMap<Object, Node>();
+		this.aliased.clear();
+		Node rootNode = new Node(null, null, root, 0, null);
+		rootNode.written = true;
+		this.visited.put(root, rootNode);
+		Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push(rootNode);
+		List<Node> nested = new ArrayList<Node>();
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			if (node.expanded) {
+				// objects with no settings, like empty collections, are still built
+				if (!node.written) {
+					line(node, null, "*");
+				}
+				continue;
+			}
+			node.expanded = true;
+			stack.push(node);
+			write(node, nested);
+			// keep order of getters
+			for (int i = nested.size() - 1; i >= 0; i--) {
+				stack.push(nested.get(i));
+			}
+			nested.clear();
+		}
+		this.visited = null;
+		this.out = null;
+	}
+
+	private void write(final Node node, final List<Node> nested) throws Exception {
+		Object obj = node.obj;
+		Class<?> component = node.typeArguments == null ? null : node.typeArguments[node.typeArguments.length - 1];
+		if (obj.getClass().isArray()) {
+			for (int i = 0; i < Array.getLength(obj); i++) {
+				write(node, "[" + i + "]", Array.get(obj, i), component, null, nested);
+			}
+		} else if (obj instanceof List) {
+			List<?> list = (List<?>) obj;
+			for (int i = 0; i < list.size(); i++) {
+				write(node, "[" + i + "]", list.get(i), component, null, nested);
+			}
+		} else if (obj instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+				String index = index(entry.getKey(), node.typeArguments == null ? null : node.typeArguments[0]);
+				if (index == null) {
+					comment(node, "[?]", "key cannot be written");
+				} else {
+					write(node, "[" + index + "]", entry.getValue(), component, null, nested);
+				}
+			}
+		} else {
+			for (Method getter : getters(type(obj))) {
+				String name = getter.getName().substring(3, 4).toLowerCase() + getter.getName().substring(4);
+				Object value;
+				try {
+					value = getter.invoke(obj);
+				} catch (Exception e) {
+					comment(node, name, "getter failed");
+					continue;
+				}
+				write(node, name, value, getter.getReturnType(), getter, nested);
+			}
+		}
+	}
+
+	/**
+	 * Writes setting of given child of given node, or adds node of it to given nested ones.
+	 *
+	 * @param declared declared type of child, <code>null</code> when unknown.
+	 * @param getter getter of child, <code>null</code> for elements of collections.
+	 */
+	private void write(final Node node, final String token, final Object value, final Class<?> declared,
+			final Method getter, final List<Node> nested) throws Exception {
+		if (value == null || node.depth >= this.depth || isExcluded(value)) {
+			return;
+		}
+		boolean element = getter == null;
+		Class<?> type = type(value);
+		String hint = (element || !declared.isPrimitive()) && !type.equals(declared)
+			? "<" + type.getName() + ">" : "";
+		if (Utils.converter(type) != Utils.NONE) {
+			String literal = Utils.literal(value);
+			if (literal.isEmpty() || SPECIAL.matcher(literal).matches()) {
+				comment(node, token, "value cannot be written");
+			} else if (!element && !declared.isPrimitive() && Utils.converter(declared) == Utils.NONE) {
+				// type of value given by its hint
+				line(node, token, literal + "<" + type.getName() + ">");
+			} else {
+				line(node, token + hint, literal);
+			}
+			return;
+		}
+		Node existing = this.visited.get(value);
+		if (existing != null) {
+			if (existing.alias == null) {
+				existing.alias = "o" + (this.aliased.size() + 1);
+				this.aliased.add(existing);
+				this.out.write("@" + existing.alias + " =" + (existing.parent == null ? "" : " "));
+				path(existing);
+				this.out.write('\n');
+			}
+			line(node, token, "@" + existing.alias);
+			return;
+		}
+		boolean collection = value.getClass().isArray() || value instanceof List || value instanceof Map;
+		if (collection && element) {
+			comment(node, token, "nested collections cannot be written");
+			return;
+		} else if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+			comment(node, token, "arrays of primitives cannot be written");
+			return;
+		}
+		Class<?>[] typeArguments = !collection ? null
+			: value.getClass().isArray() ? new Class<?>[] {value.getClass().getComponentType()}
+			: Utils.typeArguments(getter);
+		Node child = new Node(node, token + (collection ? "" : hint), value, node.depth + 1, typeArguments);
+		this.visited.put(value, child);
+		nested.add(child);
+	}
+
+	/**
+	 * @param declared declared key type, <code>null</code> when unknown.
+	 * @return index of map element of given key, <code>null</code> when it cannot be written.
+	 */
+	private String index(final Object key, final Class<?> declared) {
+		if (key == null) {
+			return null;
+		}
+		Class<?> type = type(key);
+		if (Utils.converter(type) == Utils.NONE) {
+			return null;
+		}
+		String literal = Utils.literal(key);
+		if (literal.isEmpty() || SPECIAL_INDEX.matcher(literal).matches()) {
+			return null;
+		}
+		return key instanceof String || type.equals(declared) ? literal : literal + "<" + type.getName() + ">";
+	}
+
+	private boolean isExcluded(final Object value) {
+		for (Class<?> type : this.excluded) {
+			if (type.isInstance(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes setting of given child of given node, or of the node itself when token is <code>null</code>.
+	 */
+	private void line(final Node node, final String token, final String value) throws IOException {
+		path(node);
+		if (token != null) {
+			token(node, token);
+		}
+		this.out.write(" = ");
+		this.out.write(value);
+		this.out.write('\n');
+		for (Node n = node; n != null && !n.written; n = n.parent) {
+			n.written = true;
+		}
+	}
+
+	private void comment(final Node node, final String token, final String reason) throws IOException {
+		this.out.write("# ");
+		path(node);
+		token(node, token);
+		this.out.write(" skipped, " + reason + "\n");
+	}
+
+	/**
+	 * Writes path of given node, without keeping it.
+	 */
+	private void path(final Node node) throws IOException {
+		Deque<Node> path = new ArrayDeque<Node>();
+		for (Node n = node; n.parent != null; n = n.parent) {
+			path.push(n);
+		}
+		while (!path.isEmpty()) {
+			Node n = path.pop();
+			token(n.parent, n.token);
+		}
+	}
+
+	private void token(final Node parent, final String token) throws IOException {
+		if (parent.parent != null && !token.startsWith("[")) {
+			this.out.write('.');
+		}
+		this.out.write(token);
+	}
+
+	/**
+	 * @return type given object was created of, mocked type for mocks.
+	 */
+	private static Class<?> type(final Object obj) {
+		Class<?> type = obj instanceof Enum ? ((Enum<?>) obj).getDeclaringClass() : obj.getClass();
+		if (!type.getName().contains("$$")) {
+			return type;
+		} else if (!Object.class.equals(type.getSuperclass())) {
+			return type.getSuperclass();
+		}
+		for (Class<?> cls : type.getInterfaces()) {
+			if (!cls.getName().startsWith("net.sf.cglib.") && !cls.getName().startsWith("org.mockito.")) {
+				return cls;
+			}
+		}
+		return Object.class;
+	}
+
+	/**
+	 * @return getters of given type, by names.
+	 */
+	private static List<Method> getters(final Class<?> type) {
+		List<Method> getters = GETTERS.get(type);
+		if (getters == null) {
+			getters = new ArrayList<Method>();
+			for (Method method : type.getMethods()) {
+				String name = method.getName();
+				if (name.length() > 3 && name.startsWith("get") && method.getParameterTypes().length == 0
+						&& method.getReturnType() != void.class && !method.isBridge() && !"getClass".equals(name)) {
+					method.setAccessible(true);
+					getters.add(method);
+				}
+			}
+			Collections.sort(getters, new Comparator<Method>() {
+				@Override
+				public int compare(final Method m1, final Method m2) {
+					return m1.getName().compareTo(m2.getName());
+				}
+			});
+			GETTERS.putIfAbsent(type, getters);
+		}
+		return getters;
+	}
+
+	/**
+	 * Node.
+	 * <p>
+	 * Object written, kept to refer to it when it is reached again.
+	 */
+	private static final class Node {
+		final Node parent;
+		/** token of path, after token of parent. */
+		final String token;
+		final Object obj;
+		final int depth;
+		/** declared element types of collection, <code>null</code> if unknown. */
+		final Class<?>[] typeArguments;
+		String alias;
+		/** whether any setting of this node or its descendants was written. */
+		boolean written;
+		/** whether nodes of children were added, node is finished when it is reached again then. */
+		boolean expanded;
+		Node(final Node parent, final String token, final Object obj, final int depth, final Class<?>[] typeArguments) {
+			this.parent = parent;
+			this.token = token;
+			this.obj = obj;
+			this.depth = depth;
+			this.typeArguments = typeArguments;
+		}
+	}
+
+}
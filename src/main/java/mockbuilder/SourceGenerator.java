@@ -0,0 +1,634 @@
+package mockbuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+
+/**
+ * SourceGenerator.
+ * <p>
+ * Generates Java source of factories creating and stubbing object graphs of parsed settings directly,
+ * the way {@link MockBuilder} builds them, so that nothing is parsed or looked up by reflection at runtime.
+ * Generated lists are plain array lists, neither sparse nor lazy.
+ *
+ * @author Tomasz Kisiel
+ */
+final class SourceGenerator<T> {
+
+	private static final String MOCKITO = "org.mockito.Mockito";
+
+	private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+	static {
+		for (Class<?> type : new Class<?>[] {
+				int.class, char.class, long.class, short.class, byte.class, double.class, float.class }) {
+			PRIMITIVES.put(type.getName(), type);
+		}
+	}
+
+	/**
+	 * Types known to generator, either loaded classes or types being compiled.
+	 */
+	interface TypeModel<T> {
+		/**
+		 * @return erased return type of public getter of given property, <code>null</code> when there is none.
+		 */
+		T getter(T type, String property);
+		/**
+		 * @return erased element type of list, or key and value types of map returned by public getter
+		 * 		of given property, <code>null</code> when they are not declared.
+		 */
+		List<T> typeArguments(T type, String property);
+		/**
+		 * @return erased type of given name in first of given packages containing it,
+		 * 		<code>null</code> when there is none.
+		 */
+		T find(String name, String[] packages);
+		/**
+		 * @return source name of given type.
+		 */
+		String name(T type);
+		/**
+		 * @return component type of given array type, <code>null</code> when it is not array.
+		 */
+		T component(T type);
+		/**
+		 * @return whether given type is given class or its subtype.
+		 */
+		boolean isSubtype(T type, Class<?> cls);
+		/**
+		 * @return whether given class is given type or its subtype.
+		 */
+		boolean isAssignableFrom(T type, Class<?> cls);
+		boolean isAbstract(T type);
+		boolean isEnum(T type);
+		boolean isPrimitive(T type);
+		/**
+		 * @return whether given type can be mocked.
+		 */
+		boolean isMockable(T type);
+		/**
+		 * @return whether given type has public constructor with single {@link String} parameter.
+		 */
+		boolean hasStringConstructor(T type);
+		/**
+		 * @return whether given enum type has constant of given name.
+		 */
+		boolean hasConstant(T type, String name);
+	}
+
+	private final TypeModel<T> model;
+
+	private String[] commonPackages;
+
+	private final Map<Element, T> types = new IdentityHashMap<Element, T>();
+
+	private final Map<Element, String> methods = new IdentityHashMap<Element, String>();
+
+	private final Map<Element, Integer> sizes = new IdentityHashMap<Element, Integer>();
+
+	private final Map<Element, List<T>> typeArguments = new IdentityHashMap<Element, List<T>>();
+
+
+	/**
+	 * @param model types known to generator.
+	 */
+	SourceGenerator(final TypeModel<T> model) {
+		this.model = model;
+	}
+
+	/**
+	 * @param name factory method name.
+	 * @param root parsed settings.
+	 * @param type root object type.
+	 * @param commonPackages common packages of hints.
+	 * @param extraInterfaces additional interfaces for root object.
+	 * @return source of public static factory method and nested class building object graph for it.
+	 * @throws IllegalArgumentException when settings do not match types.
+	 */
+	String fixture(final String name, final Element root, final T type, final String[] commonPackages,
+			final List<T> extraInterfaces) {
+		this.commonPackages = Utils.join(Utils.COMMON_PACKAGES, commonPackages);
+		this.types.clear();
+		this.methods.clear();
+		this.sizes.clear();
+		this.typeArguments.clear();
+		if (root == null || root.children.isEmpty()) {
+			throw new IllegalArgumentException("No settings for fixture " + name);
+		}
+		resolve(root, type);
+
+		String builder = Character.toUpperCase(name.charAt(0)) + name.substring(1) + "Builder";
+		String typeName = this.model.name(type);
+		StringBuilder src = new StringBuilder();
+		src.append("\tpublic static ").append(typeName).append(" ").append(name).append("() {\n");
+		src.append("\t\treturn new ").append(builder).append("().build();\n");
+		src.append("\t}\n\n");
+		src.append("\tprivate static final class ").append(builder).append(" {\n\n");
+		src.append("\t\tprivate final java.util.Map<String, Object> aliases =\n");
+		src.append("\t\t\tnew java.util.HashMap<String, Object>();\n\n");
+		src.append("\t\tprivate final java.util.List<Object[]> fixups = new java.util.ArrayList<Object[]>();\n\n");
+		src.append("\t\t").append(typeName).append(" build() {\n");
+		src.append("\t\t\t").append(typeName).append(" root = ").append(this.methods.get(root)).append("(-1);\n");
+		src.append("\t\t\tfor (Object[] fixup : this.fixups) {\n");
+		src.append("\t\t\t\tObject obj = this.aliases.get(fixup[2]);\n");
+		src.append("\t\t\t\tif (fixup[0] instanceof Object[]) {\n");
+		src.append("\t\t\t\t\t((Object[]) fixup[0])[(Integer) fixup[1]] = obj;\n");
+		src.append("\t\t\t\t} else if (fixup[0] instanceof java.util.List) {\n");
+		src.append("\t\t\t\t\t((java.util.List) fixup[0]).set((Integer) fixup[1], obj);\n");
+		src.append("\t\t\t\t} else {\n");
+		src.append("\t\t\t\t\t((java.util.Map) fixup[0]).put(fixup[1], obj);\n");
+		src.append("\t\t\t\t}\n");
+		src.append("\t\t\t}\n");
+		src.append("\t\t\treturn root;\n");
+		src.append("\t\t}\n");
+		for (Element elem : Element.postOrder(root)) {
+			if (this.methods.containsKey(elem)) {
+				src.append("\n");
+				method(src, elem, elem == root ? extraInterfaces : new ArrayList<T>());
+			}
+		}
+		src.append("\n");
+		src.append("\t\tprivate final class Reference implements org.mockito.stubbing.Answer<Object> {\n");
+		src.append("\t\t\tprivate final String alias;\n");
+		src.append("\t\t\tReference(final String alias) {\n");
+		src.append("\t\t\t\tthis.alias = alias;\n");
+		src.append("\t\t\t}\n");
+		src.append("\t\t\tpublic Object answer(final org.mockito.invocation.InvocationOnMock invocation) {\n");
+		src.append("\t\t\t\treturn ").append(builder).append(".this.aliases.get(this.alias);\n");
+		src.append("\t\t\t}\n");
+		src.append("\t\t}\n\n");
+		src.append("\t}\n");
+		return src.toString();
+	}
+
+	/**
+	 * @param pkg package, <code>null</code> or empty for default one.
+	 * @param name class name.
+	 * @param origin what class is generated from.
+	 * @param fixtures sources of fixtures.
+	 * @return source of class containing given fixtures.
+	 */
+	static String compilationUnit(final String pkg, final String name, final String origin,
+			final Collection<String> fixtures) {
+		StringBuilder src = new StringBuilder();
+		if (pkg != null && !pkg.isEmpty()) {
+			src.append("package ").append(pkg).append(";\n\n");
+		}
+		src.append("/**\n");
+		src.append(" * Fixtures generated from ").append(origin).append(" by mockbuilder, do not edit.\n");
+		src.append(" */\n");
+		src.append("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n");
+		src.append("public final class ").append(name).append(" {\n\n");
+		src.append("\tprivate ").append(name).append("() {\n");
+		src.append("\t}\n\n");
+		for (String fixture : fixtures) {
+			src.append(fixture).append("\n");
+		}
+		src.append("}\n");
+		return src.toString();
+	}
+
+	/**
+	 * Resolves types of all elements, the way builders of {@link MockBuilder} prepare them,
+	 * and names methods building elements with children.
+	 */
+	private void resolve(final Element root, final T type) {
+		this.types.put(root, type);
+		Deque<Element> stack = new ArrayDeque<Element>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Element element = stack.pop();
+			if (element.children.isEmpty()) {
+				continue;
+			}
+			T elemType = this.types.get(element);
+			this.methods.put(element, "build" + this.methods.size());
+			T component = this.model.component(elemType);
+			boolean isList = this.model.isSubtype(elemType, List.class);
+			boolean isMap = this.model.isSubtype(elemType, Map.class);
+			if (component != null) {
+				if (this.model.isPrimitive(component)) {
+					throw error("Unsupported array type " + this.model.name(elemType), element);
+				}
+				int size = Utils.DEFAULT_ARRAY_SIZE;
+				for (Element child : element.children) {
+					size = Math.max(size, last(child, 0) + 1);
+				}
+				this.sizes.put(element, size);
+			} else if (isList) {
+				if (!this.model.isAssignableFrom(elemType, ArrayList.class)) {
+					throw error("Unsupported list type " + this.model.name(elemType), element);
+				}
+				int size = 0;
+				for (Element child : element.children) {
+					size = Math.max(size, last(child, 0) + 1);
+				}
+				this.sizes.put(element, size);
+			} else if (!isMap && !this.model.isMockable(elemType)) {
+				throw error("Cannot mock type " + this.model.name(elemType), element);
+			}
+			for (Element child : element.children) {
+				T childType;
+				if (component != null) {
+					childType = child.hint != null ? find(child.hint, child) : component;
+				} else if (isList || isMap) {
+					if (child.reference != null) {
+						continue;
+					}
+					List<T> arguments = this.typeArguments.get(element);
+					if ((child.hint == null || child.hint.isEmpty()) && arguments == null) {
+						throw error((isList ? "List" : "Map") + " elements should have hint.", child);
+					}
+					childType = child.hint != null && !child.hint.isEmpty() ? find(child.hint, child)
+						: arguments.get(arguments.size() - 1);
+				} else {
+					String property = child.name.split("[<\\[]")[0];
+					T getterType = this.model.getter(elemType, property);
+					if (getterType == null) {
+						throw error("Cannot find getter of " + property + " in " + this.model.name(elemType), child);
+					}
+					childType = child.hint != null ? find(child.hint, child) : getterType;
+					List<T> arguments = this.model.typeArguments(elemType, property);
+					if (arguments != null) {
+						this.typeArguments.put(child, arguments);
+					}
+				}
+				if (child.reference == null) {
+					this.types.put(child, childType);
+					stack.push(child);
+				}
+			}
+		}
+	}
+
+	private void method(final StringBuilder src, final Element element, final List<T> extraInterfaces) {
+		T type = this.types.get(element);
+		String typeName = this.model.name(type);
+		src.append("\t\tprivate ").append(typeName).append(" ").append(this.methods.get(element))
+			.append("(final int i) {\n");
+		if (this.model.component(type) != null) {
+			int size = this.sizes.get(element);
+			src.append("\t\t\t").append(typeName).append(" obj = ").append(newArray(type, size)).append(";\n");
+			for (Element child : element.children) {
+				slot(src, "obj[%s] = %s;\n", "obj[%s]", child, size);
+			}
+		} else if (this.model.isSubtype(type, List.class)) {
+			int size = this.sizes.get(element);
+			src.append("\t\t\t").append(typeName).append(" obj = new java.util.ArrayList(java.util.Collections.nCopies(")
+				.append(size).append(", null));\n");
+			for (Element child : element.children) {
+				slot(src, "obj.set(%s, %s);\n", "obj.get(%s)", child, size);
+			}
+		} else if (this.model.isSubtype(type, Map.class)) {
+			List<String> keys = new ArrayList<String>();
+			T keyType = null;
+			for (int i = 0; i < element.children.size(); i++) {
+				Element child = element.children.get(i);
+				String[] tokens = child.index.split("[<>]");
+				List<T> arguments = this.typeArguments.get(element);
+				T type1 = tokens.length > 1 ? find(tokens[1], child)
+					: arguments != null && isConvertible(arguments.get(0)) ? arguments.get(0)
+					: this.model.find(String.class.getName(), new String[] {null});
+				keys.add(convert(tokens[0], type1, null, child));
+				keyType = i == 0 || keyType != null && this.model.name(type1).equals(this.model.name(keyType))
+					? type1 : null;
+			}
+			src.append("\t\t\t").append(typeName).append(" obj = ")
+				.append(newMap(type, element.children.size(), keyType, element)).append(";\n");
+			for (int i = 0; i < element.children.size(); i++) {
+				Element child = element.children.get(i);
+				if (child.reference != null) {
+					src.append("\t\t\tthis.fixups.add(new Object[] {obj, ").append(keys.get(i)).append(", ")
+						.append(quote(child.reference)).append("});\n");
+				} else {
+					src.append("\t\t\tobj.put(").append(keys.get(i)).append(", ").append(child(child, "i"))
+						.append(");\n");
+				}
+			}
+		} else {
+			src.append("\t\t\t").append(typeName).append(" obj = ").append(newMock(type, extraInterfaces))
+				.append(";\n");
+			Map<String, List<Element>> calls = new LinkedHashMap<String, List<Element>>();
+			for (Element child : element.children) {
+				Utils.getList(child.name, calls).add(child);
+			}
+			int var = 0;
+			for (List<Element> group : calls.values()) {
+				StringBuilder stubbing = new StringBuilder();
+				String property = group.get(0).name.split("[<\\[]")[0];
+				stubbing.append("\t\t\t").append(MOCKITO).append(".when(obj.get")
+					.append(Character.toUpperCase(property.charAt(0))).append(property.substring(1)).append("())");
+				for (Element child : group) {
+					if (child.reference != null) {
+						stubbing.append("\n\t\t\t\t.thenAnswer(new Reference(").append(quote(child.reference))
+							.append("))");
+						continue;
+					}
+					// children are built before stubbing starts
+					String local = "v" + var++;
+					src.append("\t\t\t").append(this.model.name(this.types.get(child))).append(" ").append(local)
+						.append(" = ").append(child(child, "i")).append(";\n");
+					if (child.children.isEmpty() && child.alias != null) {
+						src.append("\t\t\tthis.aliases.put(").append(quote(child.alias)).append(", ").append(local)
+							.append(");\n");
+					}
+					stubbing.append("\n\t\t\t\t.thenReturn(").append(local).append(")");
+				}
+				src.append(stubbing).append(";\n");
+			}
+		}
+		if (element.alias != null) {
+			src.append("\t\t\tthis.aliases.put(").append(quote(element.alias)).append(", obj);\n");
+		}
+		src.append("\t\t\treturn obj;\n");
+		src.append("\t\t}\n");
+	}
+
+	/**
+	 * Appends setting of all collection slots covered by given child.
+	 */
+	private void slot(final StringBuilder src, final String set, final String get, final Element child,
+			final int size) {
+		int first = child.isRange() ? child.from : Integer.parseInt(child.index);
+		int last = last(child, size);
+		if (first > last) {
+			return;
+		}
+		String index = first == last ? String.valueOf(first) : "j";
+		String value = child.reference != null ? null : child(child, index);
+		String indent = "\t\t\t";
+		if (first != last) {
+			src.append(indent).append("for (int j = ").append(first).append("; j <= ").append(last)
+				.append("; j++) {\n");
+			indent += "\t";
+		}
+		if (child.reference != null) {
+			src.append(indent).append("this.fixups.add(new Object[] {obj, ").append(index).append(", ")
+				.append(quote(child.reference)).append("});\n");
+		} else {
+			src.append(indent).append(String.format(set, index, value));
+			if (child.children.isEmpty() && child.alias != null) {
+				src.append(indent).append("this.aliases.put(").append(quote(child.alias)).append(", ")
+					.append(String.format(get, index)).append(");\n");
+			}
+		}
+		if (first != last) {
+			src.append("\t\t\t}\n");
+		}
+	}
+
+	/**
+	 * @return expression building given child for given index.
+	 */
+	private String child(final Element child, final String index) {
+		return child.children.isEmpty() ? value(child, this.types.get(child), index)
+			: this.methods.get(child) + "(" + index + ")";
+	}
+
+	/**
+	 * @return expression of value of given leaf element, the way {@link Utils#createValue} converts it.
+	 */
+	private String value(final Element element, final T type, final String index) {
+		String value = "null".equals(element.value) ? null : element.value;
+		String[] tokens = element.value == null ? new String[0] : element.value.split("[<>]");
+		if (tokens.length > 1) {
+			return convert(tokens[0], find(tokens[1], element), index, element);
+		}
+		return convert(value, type, index, element);
+	}
+
+	/**
+	 * @param value value as string.
+	 * @param type expected type.
+	 * @param index index of enclosing collection element, literal or variable name, <code>null</code> if none.
+	 * @param element element of value.
+	 * @return expression of value converted to given type.
+	 */
+	private String convert(final String value, final T type, final String index, final Element element) {
+		String literal = value;
+		String str = value == null ? "null" : quote(value);
+		if (value != null && index != null && value.contains(MockBuilder.INDEX)) {
+			if (index.matches("\\d+")) {
+				literal = value.replace(MockBuilder.INDEX, index);
+				str = quote(literal);
+			} else {
+				literal = null;
+				str = "(" + index + " < 0 ? " + str + " : " + str + ".replace(" + quote(MockBuilder.INDEX)
+					+ ", String.valueOf(" + index + ")))";
+			}
+		}
+		String typeName = this.model.name(type);
+		if (this.model.isSubtype(type, String.class)) {
+			return str;
+		} else if (this.model.isPrimitive(type)) {
+			if (value == null && "char".equals(typeName)) {
+				return "' '";
+			} else if (value == null) {
+				throw error("Primitive value cannot be null.", element);
+			}
+			return primitive(typeName, literal, str, element);
+		} else if (value == null) {
+			return "null";
+		}
+		for (Class<?> boxed : new Class<?>[] {
+				Integer.class, Character.class, Long.class, Double.class, Short.class, Byte.class, Float.class }) {
+			if (this.model.isSubtype(type, boxed)) {
+				String primitive = boxed == Integer.class ? "int" : boxed == Character.class ? "char"
+					: boxed.getSimpleName().toLowerCase();
+				return boxed.getName() + ".valueOf(" + primitive(primitive, literal, str, element) + ")";
+			}
+		}
+		if (this.model.isEnum(type)) {
+			if (literal == null) {
+				return typeName + ".valueOf(" + str + ")";
+			} else if (!this.model.hasConstant(type, literal)) {
+				throw error("No enum constant " + typeName + "." + literal, element);
+			}
+			return typeName + "." + literal;
+		} else if (this.model.isSubtype(type, Date.class)) {
+			return "new java.util.Date(" + primitive("long", literal, str, element) + ")";
+		} else if (this.model.hasStringConstructor(type)) {
+			return "new " + typeName + "(" + str + ")";
+		} else if (this.model.component(type) != null) {
+			return newArray(type, Utils.DEFAULT_ARRAY_SIZE);
+		} else if (this.model.isSubtype(type, List.class)) {
+			return "new java.util.ArrayList()";
+		} else if (this.model.isSubtype(type, Map.class)) {
+			return newMap(type, 0, null, element);
+		} else if (!this.model.isMockable(type)) {
+			throw error("Cannot create value of type " + typeName, element);
+		}
+		return newMock(type, new ArrayList<T>());
+	}
+
+	/**
+	 * @return whether values of given type are converted from strings, not created.
+	 */
+	private boolean isConvertible(final T type) {
+		for (Class<?> cls : new Class<?>[] {String.class, Integer.class, Character.class, Long.class, Double.class,
+				Short.class, Byte.class, Float.class, Date.class}) {
+			if (this.model.isSubtype(type, cls)) {
+				return true;
+			}
+		}
+		return this.model.isEnum(type) || this.model.hasStringConstructor(type);
+	}
+
+	/**
+	 * @return expression of primitive value, validated and written as literal when it is known already.
+	 */
+	private String primitive(final String typeName, final String literal, final String str, final Element element) {
+		if (literal == null) {
+			return "char".equals(typeName) ? str + ".charAt(0)"
+				: "int".equals(typeName) ? "Integer.parseInt(" + str + ")"
+				: Character.toUpperCase(typeName.charAt(0)) + typeName.substring(1)
+					+ ".parse" + Character.toUpperCase(typeName.charAt(0)) + typeName.substring(1) + "(" + str + ")";
+		}
+		Object value;
+		try {
+			value = Utils.createPrimitiveValue(literal, PRIMITIVES.get(typeName));
+		} catch (RuntimeException e) {
+			throw error("Invalid " + typeName + " value " + literal, element);
+		}
+		if (value instanceof Character) {
+			return "(char) " + (int) (Character) value;
+		} else if (value instanceof Long) {
+			return value + "L";
+		} else if (value instanceof Short || value instanceof Byte) {
+			return "(" + typeName + ") " + value;
+		} else if (value instanceof Double) {
+			Double d = (Double) value;
+			return d.isNaN() ? "Double.NaN" : d.isInfinite() ? (d > 0 ? "Double.POSITIVE_INFINITY"
+				: "Double.NEGATIVE_INFINITY") : d + "d";
+		} else if (value instanceof Float) {
+			Float f = (Float) value;
+			return f.isNaN() ? "Float.NaN" : f.isInfinite() ? (f > 0 ? "Float.POSITIVE_INFINITY"
+				: "Float.NEGATIVE_INFINITY") : f + "f";
+		}
+		return value.toString();
+	}
+
+	private String newMock(final T type, final List<T> extraInterfaces) {
+		StringBuilder src = new StringBuilder(MOCKITO).append(".mock(").append(this.model.name(type))
+			.append(".class, ").append(MOCKITO).append(".withSettings().serializable()");
+		if (!extraInterfaces.isEmpty()) {
+			src.append(".extraInterfaces(");
+			for (int i = 0; i < extraInterfaces.size(); i++) {
+				src.append(i > 0 ? ", " : "").append(this.model.name(extraInterfaces.get(i))).append(".class");
+			}
+			src.append(")");
+		}
+		return src.append(")").toString();
+	}
+
+	private String newArray(final T type, final int size) {
+		String name = this.model.name(type);
+		int brackets = name.indexOf("[]");
+		return "new " + name.substring(0, brackets) + "[" + size + "]" + name.substring(brackets + 2);
+	}
+
+	/**
+	 * @return expression creating map, the way {@link Utils#createMap} does.
+	 */
+	private String newMap(final T type, final int size, final T keyType, final Element element) {
+		int capacity = Math.max(size * 4 / 3 + 1, 16);
+		boolean enumKeys = keyType != null && this.model.isEnum(keyType);
+		String typeName = this.model.name(type);
+		if (this.model.isAbstract(type)) {
+			if (this.model.isSubtype(type, ConcurrentNavigableMap.class)) {
+				return "new java.util.concurrent.ConcurrentSkipListMap()";
+			} else if (this.model.isSubtype(type, SortedMap.class)) {
+				return "new java.util.TreeMap()";
+			} else if (enumKeys && this.model.isAssignableFrom(type, EnumMap.class)) {
+				return "new java.util.EnumMap(" + this.model.name(keyType) + ".class)";
+			} else if (this.model.isSubtype(type, ConcurrentMap.class)) {
+				return "new java.util.concurrent.ConcurrentHashMap(" + capacity + ")";
+			} else if (this.model.isAssignableFrom(type, LinkedHashMap.class)) {
+				return "new java.util.LinkedHashMap(" + capacity + ")";
+			}
+			throw error("Unsupported map type " + typeName, element);
+		} else if (EnumMap.class.getName().equals(typeName)) {
+			if (!enumKeys) {
+				throw error("EnumMap keys should have enum hint.", element);
+			}
+			return "new java.util.EnumMap(" + this.model.name(keyType) + ".class)";
+		}
+		for (Class<?> sized : new Class<?>[] {
+				HashMap.class, Hashtable.class, ConcurrentHashMap.class, WeakHashMap.class, IdentityHashMap.class }) {
+			if (this.model.isSubtype(type, sized)) {
+				return "new " + typeName + "(" + capacity + ")";
+			}
+		}
+		return "new " + typeName + "()";
+	}
+
+	private T find(final String name, final Element element) {
+		T type = this.model.find(name, this.commonPackages);
+		if (type == null) {
+			throw error("Cannot find type " + name, element);
+		}
+		return type;
+	}
+
+	/**
+	 * @return last index set by given collection element, wildcards cover collection of given size.
+	 */
+	private static int last(final Element child, final int size) {
+		return !child.isRange() ? Integer.parseInt(child.index) : child.to < 0 ? size - 1 : child.to;
+	}
+
+	/**
+	 * @return Java string literal of given string.
+	 */
+	static String quote(final String str) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : str.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c == '\n') {
+				quoted.append("\\n");
+			} else if (c == '\r') {
+				quoted.append("\\r");
+			} else if (c == '\t') {
+				quoted.append("\\t");
+			} else if (c == '\b') {
+				quoted.append("\\b");
+			} else if (c == '\f') {
+				quoted.append("\\f");
+			} else if (c < ' ') {
+				// unicode escapes are translated before lexing, line breaks among them end the literal
+				quoted.append(String.format("\\%03o", (int) c));
+			} else if (c > '~') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * @return exception reporting given problem with given element.
+	 */
+	private static IllegalArgumentException error(final String msg, final Element element) {
+		String key = element.key();
+		int dot = key.indexOf('.');
+		return new IllegalArgumentException(msg + (dot < 0 ? "" : " (" + key.substring(dot + 1) + ")"));
+	}
+
+}
@@ -0,0 +1,109 @@
+package mockbuilder;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * SparseList.
+ * <p>
+ * Fixed size list keeping only non-null elements, indexed by sorted int key array.
+ * Missing elements are reported as <code>null</code>.
+ *
+ * @author Tomasz Kisiel
+ */
+final class SparseList<E> extends AbstractList<E> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private int[] keys;
+
+	private Object[] values;
+
+	private int count;
+
+	private int size;
+
+
+	/**
+	 * @param size list size.
+	 * @param capacity expected number of non-null elements.
+	 */
+	SparseList(final int size, final int capacity) {
+		if (size < 0 || capacity < 0) throw new IllegalArgumentException();
+		this.size = size;
+		this.keys = new int[Math.max(capacity, 1)];
+		this.values = new Object[this.keys.length];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(final int index) {
+		check(index);
+		int pos = Arrays.binarySearch(this.keys, 0, this.count, index);
+		return pos < 0 ? null : (E) this.values[pos];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public E set(final int index, final E element) {
+		check(index);
+		int pos = Arrays.binarySearch(this.keys, 0, this.count, index);
+		if (pos >= 0) {
+			E old = (E) this.values[pos];
+			this.values[pos] = element;
+			return old;
+		}
+		if (element != null) {
+			insert(-pos - 1, index, element);
+		}
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean add(final E element) {
+		this.modCount++;
+		if (element != null) {
+			insert(this.count, this.size, element);
+		}
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	private void insert(final int pos, final int index, final Object element) {
+		if (this.count == this.keys.length) {
+			int capacity = this.count + (this.count >> 1) + 1;
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+		System.arraycopy(this.keys, pos, this.keys, pos + 1, this.count - pos);
+		System.arraycopy(this.values, pos, this.values, pos + 1, this.count - pos);
+		this.keys[pos] = index;
+		this.values[pos] = element;
+		this.count++;
+	}
+
+	private void check(final int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+	}
+
+}
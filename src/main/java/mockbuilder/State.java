@@ -0,0 +1,263 @@
+package mockbuilder;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * State.
+ * <p>
+ * Property values of one stateful mock, read by its getters and written by its setters. Values of primitive
+ * properties are kept unboxed; slots of properties are laid out once per type.
+ *
+ * @author Tomasz Kisiel
+ */
+final class State implements Answer<Object> {
+
+	private static final ConcurrentMap<Class<?>, Layout> LAYOUTS = new ConcurrentHashMap<Class<?>, Layout>();
+
+	/** states of stateful mocks, neither keeping the other alive, striped by identity of mocks. */
+	private static final Map<Object, WeakReference<State>>[] STATES = states(16);
+
+	/** marks values set to <code>null</code>. */
+	private static final Object NULL = new Object();
+
+	private final Layout layout;
+
+	/** values of properties, or answers of subsequent invocations and references; <code>null</code> if unset. */
+	private final Object[] values;
+
+	private final long[] primitives;
+
+	/** bits of primitive values set. */
+	private final long[] set;
+
+
+	private State(final Layout layout) {
+		this.layout = layout;
+		this.values = new Object[layout.types.length];
+		this.primitives = new long[layout.primitives];
+		this.set = new long[(layout.primitives + 63) >>> 6];
+	}
+
+	/**
+	 * @param type type.
+	 * @param extraInterfaces
+	 * @return new mock with state.
+	 */
+	static Object mock(final Class<?> type, final Class<?>... extraInterfaces) {
+		Layout layout = LAYOUTS.get(type);
+		if (layout == null) {
+			LAYOUTS.putIfAbsent(type, new Layout(type));
+			layout = LAYOUTS.get(type);
+		}
+		State state = new State(layout);
+		Object mock = Utils.mock(type, state, extraInterfaces);
+		states(mock).put(mock, new WeakReference<State>(state));
+		return mock;
+	}
+
+	/**
+	 * @param obj object.
+	 * @return state of given object, <code>null</code> if it is not stateful mock.
+	 */
+	static State of(final Object obj) {
+		WeakReference<State> state = states(obj).get(obj);
+		return state == null ? null : state.get();
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static Map<Object, WeakReference<State>>[] states(final int stripes) {
+		Map<Object, WeakReference<State>>[] states = new Map[stripes];
+		for (int i = 0; i < stripes; i++) {
+			states[i] = Collections.synchronizedMap(new WeakHashMap<Object, WeakReference<State>>());
+		}
+		return states;
+	}
+
+	/**
+	 * @return stripe of states keeping state of given object.
+	 */
+	private static Map<Object, WeakReference<State>> states(final Object obj) {
+		return STATES[(System.identityHashCode(obj) & Integer.MAX_VALUE) % STATES.length];
+	}
+
+	/**
+	 * Sets value returned by getter of given property, like stubbing does.
+	 *
+	 * @param property property name.
+	 * @param value value, or answer of invocation.
+	 * @param subsequent whether value is returned after ones set before, instead of replacing them.
+	 */
+	synchronized void stub(final String property, final Object value, final boolean subsequent) {
+		int slot = slot(property);
+		if (subsequent) {
+			Object previous = stored(slot);
+			Calls calls = this.values[slot] instanceof Calls ? (Calls) this.values[slot]
+				: new Calls(previous instanceof Answer ? (Answer<?>) previous : new Value(previous));
+			calls.answers.add(value instanceof Answer ? (Answer<?>) value : new Value(value));
+			this.values[slot] = calls;
+		} else if (value instanceof Answer) {
+			this.values[slot] = value;
+		} else {
+			put(slot, value);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Object answer(final InvocationOnMock invocation) throws Throwable {
+		Method method = invocation.getMethod();
+		String name = method.getName();
+		Object[] args = invocation.getArguments();
+		if (name.length() > 3 && args.length == 0 && name.startsWith("get")) {
+			Integer slot = this.layout.slots.get(name.substring(3));
+			Object value = slot == null ? null : stored(slot);
+			if (value instanceof Answer) {
+				value = ((Answer<?>) value).answer(invocation);
+				return value == NULL ? null : value;
+			} else if (value != null) {
+				return value == NULL ? null : value;
+			}
+		} else if (name.length() > 3 && args.length == 1 && name.startsWith("set")) {
+			Integer slot = this.layout.slots.get(name.substring(3));
+			if (slot != null && method.getParameterTypes()[0].equals(this.layout.types[slot])) {
+				put(slot, args[0]);
+				return null;
+			}
+		}
+		return Mockito.RETURNS_DEFAULTS.answer(invocation);
+	}
+
+	private int slot(final String property) {
+		Integer slot = this.layout.slots.get(Layout.key(property));
+		if (slot == null) {
+			throw new IllegalArgumentException("Cannot find property " + property + " of stateful mock.");
+		}
+		return slot;
+	}
+
+	/**
+	 * @return value or answer of given slot, {@link #NULL} for <code>null</code>, <code>null</code> if unset.
+	 */
+	private Object stored(final int slot) {
+		Object value = this.values[slot];
+		if (value != null) {
+			return value;
+		}
+		int primitive = this.layout.primitive[slot];
+		if (primitive < 0 || (this.set[primitive >>> 6] & 1L << primitive) == 0) {
+			return null;
+		}
+		long bits = this.primitives[primitive];
+		Class<?> type = this.layout.types[slot];
+		return type == boolean.class ? (Object) (bits != 0)
+			: type == char.class ? (Object) (char) bits
+			: type == byte.class ? (Object) (byte) bits
+			: type == short.class ? (Object) (short) bits
+			: type == int.class ? (Object) (int) bits
+			: type == float.class ? (Object) Float.intBitsToFloat((int) bits)
+			: type == double.class ? (Object) Double.longBitsToDouble(bits)
+			: (Object) bits;
+	}
+
+	private void put(final int slot, final Object value) {
+		int primitive = this.layout.primitive[slot];
+		if (primitive < 0 || value == null) {
+			this.values[slot] = value == null ? NULL : value;
+			return;
+		}
+		this.values[slot] = null;
+		this.primitives[primitive] = value instanceof Boolean ? (((Boolean) value) ? 1 : 0)
+			: value instanceof Character ? (Character) value
+			: value instanceof Float ? Float.floatToRawIntBits((Float) value)
+			: value instanceof Double ? Double.doubleToRawLongBits((Double) value)
+			: ((Number) value).longValue();
+		this.set[primitive >>> 6] |= 1L << primitive;
+	}
+
+	/**
+	 * Layout.
+	 * <p>
+	 * Slots of properties of one type.
+	 */
+	private static final class Layout {
+		/** slots by names of getters and setters without their prefix. */
+		final Map<String, Integer> slots = new HashMap<String, Integer>();
+		final Class<?>[] types;
+		/** positions of primitive values of slots, -1 for other slots. */
+		final int[] primitive;
+		final int primitives;
+		Layout(final Class<?> type) {
+			List<Class<?>> types = new ArrayList<Class<?>>();
+			for (Method method : type.getMethods()) {
+				String name = method.getName();
+				if (name.length() > 3 && name.startsWith("get") && method.getParameterTypes().length == 0
+						&& method.getReturnType() != void.class && !this.slots.containsKey(name.substring(3))) {
+					this.slots.put(name.substring(3), types.size());
+					types.add(method.getReturnType());
+				}
+			}
+			this.types = types.toArray(new Class<?>[types.size()]);
+			this.primitive = new int[this.types.length];
+			int primitives = 0;
+			for (int i = 0; i < this.types.length; i++) {
+				this.primitive[i] = this.types[i].isPrimitive() ? primitives++ : -1;
+			}
+			this.primitives = primitives;
+		}
+		/**
+		 * @return slot key of given property, capitalised like {@link Utils#getter(Class, String)} does.
+		 */
+		static String key(final String property) {
+			return property.substring(0, 1).toUpperCase() + property.substring(1);
+		}
+	}
+
+	/**
+	 * Value.
+	 */
+	private static final class Value implements Answer<Object> {
+		private final Object value;
+		Value(final Object value) {
+			this.value = value;
+		}
+		@Override
+		public Object answer(final InvocationOnMock invocation) {
+			return this.value;
+		}
+	}
+
+	/**
+	 * Calls.
+	 * <p>
+	 * Answers of subsequent invocations, the last one repeated.
+	 */
+	private static final class Calls implements Answer<Object> {
+		final List<Answer<?>> answers = new ArrayList<Answer<?>>();
+		private int call;
+		Calls(final Answer<?> first) {
+			this.answers.add(first);
+		}
+		@Override
+		public Object answer(final InvocationOnMock invocation) throws Throwable {
+			Answer<?> answer = this.answers.get(Math.min(this.call, this.answers.size() - 1));
+			this.call++;
+			return answer.answer(invocation);
+		}
+	}
+
+}
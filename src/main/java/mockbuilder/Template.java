@@ -0,0 +1,83 @@
+package mockbuilder;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import mockbuilder.MockBuilder.Mode;
+
+/**
+ * Template.
+ * <p>
+ * Settings parsed once and built any number of times. Derived templates add overrides
+ * to parsed settings of their base, as if they followed them, parsing only overrides.
+ * <p>
+ * Templates are immutable and can be built concurrently; each build resolves types on its own copy
+ * of parsed settings.
+ *
+ * @author Tomasz Kisiel
+ */
+public final class Template<T> {
+
+	private final Class<T> type;
+
+	private final Parser parser;
+
+
+	private Template(final Class<T> type, final Parser parser) {
+		this.type = type;
+		this.parser = parser;
+	}
+
+	/**
+	 * @param <T>
+	 * @param type root object type.
+	 * @param settings base settings.
+	 * @param extraInterfaces
+	 * @return template.
+	 * @throws Exception
+	 */
+	public static <T> Template<T> of(final Class<T> type, final String[] settings,
+			final Class<?>... extraInterfaces) throws Exception {
+		return new Template<T>(type, new Parser(type, settings, extraInterfaces));
+	}
+
+	/**
+	 * @param overrides settings following settings of this template.
+	 * @return derived template, this template remains unchanged.
+	 * @throws Exception
+	 */
+	public Template<T> extend(final String... overrides) throws Exception {
+		Element root = this.parser.root();
+		return new Template<T>(this.type, new Parser(this.parser, this.type, overrides, true,
+			root == null ? new Class<?>[0] : root.extraInterfaces));
+	}
+
+	/**
+	 * @param modes
+	 * @param commonPackages
+	 * @return built root object.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public T build(final Set<Mode> modes, final String[] commonPackages) throws Exception {
+		return (T) MockBuilder.build(this.parser.root().copyTree(), modes, commonPackages);
+	}
+
+	/**
+	 * @param commonPackages
+	 * @return built root object.
+	 * @throws Exception
+	 */
+	public T build(final String[] commonPackages) throws Exception {
+		return build(EnumSet.noneOf(Mode.class), commonPackages);
+	}
+
+	/**
+	 * @return built root object.
+	 * @throws Exception
+	 */
+	public T build() throws Exception {
+		return build(new String[0]);
+	}
+
+}
@@ -1,241 +1,697 @@
-package mockbuilder;
-
-import java.lang.reflect.Array;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import org.mockito.MockSettings;
-import org.mockito.Mockito;
-
-/**
- * MockBuilder Utils.
- *
- * @author Tomasz Kisiel
- */
-public class Utils {
-
-	static final String[] COMMON_PACKAGES = new String[] { null, "java.lang", "java.util", "java.math" };
-
-	static final int DEFAULT_ARRAY_SIZE = 10;
-
-
-	/**
-	 * @param type type.
-	 * @param propertyName property name.
-	 * @return getter.
-	 * @throws Exception .
-	 */
-	static Method getter(final Class<?> type, final String propertyName) throws Exception {
-		String name = propertyName.split("[<\\[]")[0];
-		return type.getMethod("get" + name.substring(0, 1).toUpperCase() + name.substring(1));
-	}
-
-	/**
-	 * @param type type.
-	 * @param propertyName property name.
-	 * @return setter.
-	 * @throws Exception .
-	 */
-	static Method setter(final Class<?> type, final String propertyName) throws Exception {
-		String name = propertyName.split("[<\\[]")[0];
-		String setterName = "set" + name.substring(0, 1).toUpperCase() + name.substring(1);
-		for (Method method : type.getMethods()) {
-			if (setterName.equals(method.getName())) {
-				return method;
-			}
-		}
-		throw new NoSuchMethodException(setterName);
-	}
-
-	/**
-	 * @param value value as string.
-	 * @param type expected type.
-	 * @return value converted to given type.
-	 */
-	static Object createPrimitiveValue(final String value, final Class<?> type) {
-		if (value == null) {
-			if (char.class.isAssignableFrom(type)) {
-				return ' ';
-			}
-			throw new IllegalArgumentException("Primitive value cannot be null.");
-		} else if (int.class.isAssignableFrom(type)) {
-			return Integer.parseInt(value);
-		} else if (char.class.isAssignableFrom(type)) {
-			return value.charAt(0);
-		} else if (long.class.isAssignableFrom(type)) {
-			return Long.parseLong(value);
-		} else if (short.class.isAssignableFrom(type)) {
-			return Short.parseShort(value);
-		} else if (byte.class.isAssignableFrom(type)) {
-			return Byte.parseByte(value);
-		} else if (double.class.isAssignableFrom(type)) {
-			return Double.parseDouble(value);
-		} else if (float.class.isAssignableFrom(type)) {
-			return Float.parseFloat(value);
-		} else {
-			throw new UnsupportedOperationException("Unimplemented primitive creator for type " + type);
-		}
-	}
-
-	/**
-	 * @param value value as string.
-	 * @param type expected type.
-	 * @return value converted to given type.
-	 * @throws Exception .
-	 */
-	static Object createValue(final String value, final Class<?> type, final Class<?>... extraInterfaces)
-	throws Exception {
-		return createValue(value, type, COMMON_PACKAGES, extraInterfaces);
-	}
-
-	/**
-	 * @param value value as string.
-	 * @param type expected type.
-	 * @param commonPackages common packages.
-	 * @return value converted to given type.
-	 * @throws Exception .
-	 */
-	@SuppressWarnings({"rawtypes", "unchecked"})
-	static Object createValue(final String value, final Class<?> type, final String[] commonPackages,
-			final Class<?>... extraInterfaces) throws Exception {
-		if (type == null) throw new IllegalArgumentException("Type cannot be null.");
-		String theValue = "null".equals(value) ? null : value;
-		Class<?> theType = type;
-		String[] tokens = value == null ? new String[0] : value.split("[<>]");
-		if (tokens.length > 1) {
-			theType = asType(tokens[1], commonPackages);
-			theValue = tokens[0];
-		}
-		// String
-		if (String.class.isAssignableFrom(theType)) {
-			return theValue;
-		// primitives
-		} else if (theType.isPrimitive()) {
-			return createPrimitiveValue(theValue, theType);
-		// null
-		} else if (theValue == null) {
-			return null;
-		// numerics
-		} else if (Integer.class.isAssignableFrom(theType)) {
-			return Integer.parseInt(theValue);
-		} else if (Character.class.isAssignableFrom(theType)) {
-			return theValue.charAt(0);
-		} else if (Long.class.isAssignableFrom(theType)) {
-			return Long.parseLong(theValue);
-		} else if (Double.class.isAssignableFrom(theType)) {
-			return Double.parseDouble(theValue);
-		} else if (Short.class.isAssignableFrom(theType)) {
-			return Short.parseShort(theValue);
-		} else if (Byte.class.isAssignableFrom(theType)) {
-			return Byte.parseByte(theValue);
-		} else if (Float.class.isAssignableFrom(theType)) {
-			return Float.parseFloat(theValue);
-		// enums
-		} else if (theType.isEnum()) {
-			return Enum.valueOf((Class<Enum>) theType, theValue);
-		// Date
-		} else if (Date.class.isAssignableFrom(theType)) {
-			return new Date(Long.parseLong(theValue));
-		} else {
-			try {
-				// constructor with String paramter
-				return theType.getConstructor(String.class).newInstance(theValue);
-			} catch (NoSuchMethodException e) {
-				// collections or mock
-				return create(theType, extraInterfaces);
-			}
-		}
-	}
-
-	@SuppressWarnings("rawtypes")
-	static Object create(final Class<?> type, final Class<?>... extraInterfaces) throws Exception {
-		if (type == null) throw new IllegalArgumentException("Type cannot be null.");
-		if (type.isArray()) {
-			return Array.newInstance(type.getComponentType(), DEFAULT_ARRAY_SIZE);
-		} else if (List.class.isAssignableFrom(type)) {
-			return new ArrayList();
-		} else if (Map.class.isAssignableFrom(type)) {
-			return new HashMap();
-		} else {
-			return mock(type, extraInterfaces);
-		}
-	}
-
-	static Object mock(final Class<?> type, final Class<?>... extraInterfaces) {
-		MockSettings settings = Mockito.withSettings().serializable();
-		if (extraInterfaces != null && extraInterfaces.length > 0) {
-			settings.extraInterfaces(extraInterfaces);
-		}
-		return Mockito.mock(type, settings);
-	}
-
-	/**
-	 * @param str string.
-	 * @param commonPackages common packages.
-	 * @return type corresponding to given string.
-	 * @throws Exception .
-	 */
-	static Class<?> asType(final String str, final String[] commonPackages) throws Exception {
-		for (String pkg : commonPackages) {
-			try {
-				return findType(pkg, str);
-			} catch (ClassNotFoundException e) {}
-		}
-		throw new IllegalArgumentException("Cannot find type " + str);
-	}
-
-	/**
-	 * @param pkg package.
-	 * @param str class name.
-	 * @return class.
-	 * @throws ClassNotFoundException .
-	 */
-	static Class<?> findType(final String pkg, final String str) throws ClassNotFoundException {
-		return Class.forName(pkg == null ? str : join(pkg, str));
-	}
-
-	/**
-	 * @param s string.
-	 * @return .
-	 */
-	static String strip$$(final String s) {
-		return s.replaceAll("\\$\\$.*$", "");
-	}
-
-	/**
-	 * @param upstream
-	 * @param name
-	 * @return
-	 */
-	static String join(final String upstream, final String name) {
-		return upstream.isEmpty() ? name : upstream + "." + name;
-	}
-
-	/**
-	 * @param a1
-	 * @param a2
-	 * @return
-	 */
-	static String[] join(final String[] a1, final String[] a2) {
-		int a1Size = a1.length;
-		int a2Size = a2.length;
-		String[] a = new String[a1Size + a2Size];
-		System.arraycopy(a1, 0, a, 0, a1Size);
-		System.arraycopy(a2, 0, a, a1Size, a2Size);
-		return a;
-	}
-
-	static <K, V> List<V> getList(final K key, final Map<K, List<V>> map) {
-		List<V> list = map.get(key);
-		if (list == null) {
-			list = new ArrayList<V>();
-			map.put(key, list);
-		}
-		return list;
-	}
-
-}
+package mockbuilder;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.mockito.MockSettings;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+/**
+ * MockBuilder Utils.
+ *
+ * @author Tomasz Kisiel
+ */
+public class Utils {
+
+	static final String[] COMMON_PACKAGES = new String[] { null, "java.lang", "java.util", "java.math" };
+
+	static final int DEFAULT_ARRAY_SIZE = 10;
+
+	static final int SPARSE_LIST_MIN_SIZE = 1024;
+
+	static final int SPARSE_LIST_RATIO = 8;
+
+	static final int LAZY_CACHE_SIZE = Integer.getInteger("mockbuilder.lazyCacheSize", 64);
+
+	static final int VALUE_CACHE_SIZE = Integer.getInteger("mockbuilder.valueCacheSize", 1024);
+
+	/** number of independently locked parts of each cache of converted values. */
+	static final int VALUE_CACHE_STRIPES = 16;
+
+	/** names of user types which instances converted from equal values can be shared. */
+	private static final Set<String> IMMUTABLE_TYPES = new HashSet<String>(Arrays.asList(
+		System.getProperty("mockbuilder.immutableTypes", "").split("\\s*,\\s*")));
+
+	private static final ConcurrentMap<String, String> SYMBOLS = new ConcurrentHashMap<String, String>();
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Method>> GETTERS =
+		new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Method>>();
+
+	private static final ConcurrentMap<Method, Class<?>[]> TYPE_ARGUMENTS =
+		new ConcurrentHashMap<Method, Class<?>[]>();
+
+	private static final Class<?>[] NO_TYPE_ARGUMENTS = new Class<?>[0];
+
+	/** classes by qualified names, {@link #MISSING} for names of no class. */
+	private static final ConcurrentMap<String, Object> TYPES = new ConcurrentHashMap<String, Object>();
+
+	private static final Object MISSING = new Object();
+
+	/** converters of types having no other instances than ones converted from values. */
+	private static final Map<Class<?>, Converter> PARSERS = new HashMap<Class<?>, Converter>();
+
+	private static final ConcurrentMap<Class<?>, Converter> CONVERTERS = new ConcurrentHashMap<Class<?>, Converter>();
+
+	/** marks types which values are created, not converted. */
+	static final Converter NONE = new Converter() {
+		@Override
+		public Object convert(final String value) {
+			throw new UnsupportedOperationException();
+		}
+	};
+
+	static {
+		Converter converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return value;
+			}
+		};
+		PARSERS.put(String.class, interned(converter));
+		converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return Integer.parseInt(value);
+			}
+		};
+		converter = interned(converter);
+		PARSERS.put(int.class, converter);
+		PARSERS.put(Integer.class, converter);
+		converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return value.charAt(0);
+			}
+		};
+		converter = interned(converter);
+		PARSERS.put(char.class, converter);
+		PARSERS.put(Character.class, converter);
+		converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return Long.parseLong(value);
+			}
+		};
+		converter = interned(converter);
+		PARSERS.put(long.class, converter);
+		PARSERS.put(Long.class, converter);
+		converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return Double.parseDouble(value);
+			}
+		};
+		converter = interned(converter);
+		PARSERS.put(double.class, converter);
+		PARSERS.put(Double.class, converter);
+		converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return Short.parseShort(value);
+			}
+		};
+		converter = interned(converter);
+		PARSERS.put(short.class, converter);
+		PARSERS.put(Short.class, converter);
+		converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return Byte.parseByte(value);
+			}
+		};
+		converter = interned(converter);
+		PARSERS.put(byte.class, converter);
+		PARSERS.put(Byte.class, converter);
+		converter = new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return Float.parseFloat(value);
+			}
+		};
+		converter = interned(converter);
+		PARSERS.put(float.class, converter);
+		PARSERS.put(Float.class, converter);
+		PARSERS.put(Date.class, new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return new Date(Long.parseLong(value));
+			}
+		});
+		PARSERS.put(BigDecimal.class, interned(new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return new BigDecimal(value);
+			}
+		}));
+		PARSERS.put(BigInteger.class, interned(new Converter() {
+			@Override
+			public Object convert(final String value) {
+				return new BigInteger(value);
+			}
+		}));
+	}
+
+
+	/**
+	 * @param type type.
+	 * @param propertyName property name.
+	 * @return getter.
+	 * @throws Exception .
+	 */
+	static Method getter(final Class<?> type, final String propertyName) throws Exception {
+		ConcurrentMap<String, Method> getters = GETTERS.get(type);
+		if (getters == null) {
+			GETTERS.putIfAbsent(type, new ConcurrentHashMap<String, Method>());
+			getters = GETTERS.get(type);
+		}
+		Method getter = getters.get(propertyName);
+		if (getter == null) {
+			String name = propertyName.split("[<\\[]")[0];
+			getter = type.getMethod("get" + name.substring(0, 1).toUpperCase() + name.substring(1));
+			getters.put(propertyName, getter);
+		}
+		return getter;
+	}
+
+	/**
+	 * @param getter getter.
+	 * @return erased element type of list, or key and value types of map returned by given getter,
+	 * 		<code>null</code> when they are not declared.
+	 */
+	static Class<?>[] typeArguments(final Method getter) {
+		Class<?>[] typeArguments = TYPE_ARGUMENTS.get(getter);
+		if (typeArguments == null) {
+			typeArguments = NO_TYPE_ARGUMENTS;
+			Class<?> type = getter.getReturnType();
+			int count = List.class.isAssignableFrom(type) ? 1 : Map.class.isAssignableFrom(type) ? 2 : 0;
+			Type genericType = genericReturnType(getter);
+			if (count > 0 && genericType instanceof ParameterizedType
+					&& ((ParameterizedType) genericType).getActualTypeArguments().length == count) {
+				typeArguments = new Class<?>[count];
+				for (int i = 0; i < count; i++) {
+					typeArguments[i] = erasure(((ParameterizedType) genericType).getActualTypeArguments()[i]);
+					if (typeArguments[i] == null || Object.class.equals(typeArguments[i])) {
+						typeArguments = NO_TYPE_ARGUMENTS;
+						break;
+					}
+				}
+			}
+			TYPE_ARGUMENTS.putIfAbsent(getter, typeArguments);
+		}
+		return typeArguments.length == 0 ? null : typeArguments;
+	}
+
+	/**
+	 * @return generic return type of given getter, or of getter it overrides when its signature is erased,
+	 * 		like signatures of mock classes are.
+	 */
+	private static Type genericReturnType(final Method getter) {
+		Type type = getter.getGenericReturnType();
+		if (type instanceof ParameterizedType) {
+			return type;
+		}
+		Class<?> cls = getter.getDeclaringClass();
+		List<Class<?>> supertypes = new ArrayList<Class<?>>(Arrays.asList(cls.getInterfaces()));
+		if (cls.getSuperclass() != null) {
+			supertypes.add(cls.getSuperclass());
+		}
+		for (Class<?> supertype : supertypes) {
+			try {
+				Type overridden = genericReturnType(supertype.getMethod(getter.getName()));
+				if (overridden instanceof ParameterizedType) {
+					return overridden;
+				}
+			} catch (NoSuchMethodException e) {}
+		}
+		return type;
+	}
+
+	/**
+	 * @return class of given type, <code>null</code> when it is unknown.
+	 */
+	private static Class<?> erasure(final Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		} else if (type instanceof ParameterizedType) {
+			return erasure(((ParameterizedType) type).getRawType());
+		} else if (type instanceof WildcardType) {
+			return erasure(((WildcardType) type).getUpperBounds()[0]);
+		} else if (type instanceof TypeVariable) {
+			return erasure(((TypeVariable<?>) type).getBounds()[0]);
+		} else if (type instanceof GenericArrayType) {
+			Class<?> component = erasure(((GenericArrayType) type).getGenericComponentType());
+			return component == null ? null : Array.newInstance(component, 0).getClass();
+		}
+		return null;
+	}
+
+	/**
+	 * @param type type.
+	 * @param propertyName property name.
+	 * @return setter.
+	 * @throws Exception .
+	 */
+	static Method setter(final Class<?> type, final String propertyName) throws Exception {
+		String name = propertyName.split("[<\\[]")[0];
+		String setterName = "set" + name.substring(0, 1).toUpperCase() + name.substring(1);
+		for (Method method : type.getMethods()) {
+			if (setterName.equals(method.getName())) {
+				return method;
+			}
+		}
+		throw new NoSuchMethodException(setterName);
+	}
+
+	/**
+	 * @param value value as string.
+	 * @param type expected type.
+	 * @return value converted to given type.
+	 */
+	static Object createPrimitiveValue(final String value, final Class<?> type) {
+		if (value == null) {
+			if (char.class.isAssignableFrom(type)) {
+				return ' ';
+			}
+			throw new IllegalArgumentException("Primitive value cannot be null.");
+		}
+		Converter converter = PARSERS.get(type);
+		if (converter == null) {
+			throw new UnsupportedOperationException("Unimplemented primitive creator for type " + type);
+		}
+		try {
+			return converter.convert(value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * @param value value as string.
+	 * @param type expected type.
+	 * @return value converted to given type.
+	 * @throws Exception .
+	 */
+	static Object createValue(final String value, final Class<?> type, final Class<?>... extraInterfaces)
+	throws Exception {
+		return createValue(value, type, COMMON_PACKAGES, extraInterfaces);
+	}
+
+	/**
+	 * @param value value as string.
+	 * @param type expected type.
+	 * @param commonPackages common packages.
+	 * @return value converted to given type.
+	 * @throws Exception .
+	 */
+	static Object createValue(final String value, final Class<?> type, final String[] commonPackages,
+			final Class<?>... extraInterfaces) throws Exception {
+		if (type == null) throw new IllegalArgumentException("Type cannot be null.");
+		String theValue = "null".equals(value) ? null : value;
+		Class<?> theType = type;
+		if (value != null && (value.indexOf('<') >= 0 || value.indexOf('>') >= 0)) {
+			String[] tokens = value.split("[<>]");
+			if (tokens.length > 1) {
+				theType = asType(tokens[1], commonPackages);
+				theValue = tokens[0];
+			}
+		}
+		if (theType.isPrimitive()) {
+			return createPrimitiveValue(theValue, theType);
+		} else if (theValue == null) {
+			return null;
+		}
+		Converter converter = converter(theType);
+		// collections or mock
+		return converter != NONE ? converter.convert(theValue) : create(theType, extraInterfaces);
+	}
+
+	/**
+	 * @param type expected type.
+	 * @return converter of values to given type, {@link #NONE} when values of it are created, not converted.
+	 */
+	static Converter converter(final Class<?> type) {
+		Converter converter = CONVERTERS.get(type);
+		if (converter == null) {
+			converter = newConverter(type);
+			Converter existing = CONVERTERS.putIfAbsent(type, converter);
+			if (existing != null) {
+				converter = existing;
+			}
+		}
+		return converter;
+	}
+
+	/**
+	 * @param converter converter of immutable values.
+	 * @return converter sharing values converted from equal literals, keeping bounded number of recently
+	 * 		converted ones. Literals are spread over stripes locked separately, so that concurrent builds
+	 * 		do not wait for each other.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	static Converter interned(final Converter converter) {
+		if (VALUE_CACHE_SIZE <= 0) {
+			return converter;
+		}
+		final Map<String, Object>[] stripes = new Map[Math.min(VALUE_CACHE_STRIPES, VALUE_CACHE_SIZE)];
+		final int stripeSize = VALUE_CACHE_SIZE / stripes.length;
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest) {
+					return size() > stripeSize;
+				}
+			};
+		}
+		return new Converter() {
+			@Override
+			public Object convert(final String value) throws Exception {
+				Map<String, Object> cache = stripes[(value.hashCode() & Integer.MAX_VALUE) % stripes.length];
+				Object converted;
+				synchronized (cache) {
+					converted = cache.get(value);
+				}
+				if (converted == null) {
+					converted = converter.convert(value);
+					synchronized (cache) {
+						// keep value shared already
+						Object existing = cache.get(value);
+						if (existing != null) {
+							converted = existing;
+						} else {
+							cache.put(value, converted);
+						}
+					}
+				}
+				return converted;
+			}
+		};
+	}
+
+	/**
+	 * @param value value of type having converter.
+	 * @return given value as string converted back to it by {@link #createValue}.
+	 */
+	static String literal(final Object value) {
+		if (value == null) {
+			return "null";
+		} else if (value instanceof Enum) {
+			return ((Enum<?>) value).name();
+		} else if (value instanceof Date) {
+			return String.valueOf(((Date) value).getTime());
+		}
+		return value.toString();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Converter newConverter(final Class<?> type) {
+		Converter parser = PARSERS.get(type);
+		if (parser != null) {
+			return parser;
+		} else if (type.isEnum()) {
+			final Map<String, Object> constants = new HashMap<String, Object>();
+			for (Object constant : type.getEnumConstants()) {
+				constants.put(((Enum) constant).name(), constant);
+			}
+			return new Converter() {
+				@Override
+				public Object convert(final String value) {
+					Object constant = constants.get(value);
+					if (constant == null) {
+						throw new IllegalArgumentException("No enum constant " + type.getName() + "." + value);
+					}
+					return constant;
+				}
+			};
+		} else if (Date.class.isAssignableFrom(type)) {
+			return PARSERS.get(Date.class);
+		}
+		try {
+			// constructor with String paramter
+			final Constructor<?> constructor = type.getConstructor(String.class);
+			Converter converter = new Converter() {
+				@Override
+				public Object convert(final String value) throws Exception {
+					return constructor.newInstance(value);
+				}
+			};
+			return IMMUTABLE_TYPES.contains(type.getName()) ? interned(converter) : converter;
+		} catch (NoSuchMethodException e) {
+			return NONE;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	static Object create(final Class<?> type, final Class<?>... extraInterfaces) throws Exception {
+		if (type == null) throw new IllegalArgumentException("Type cannot be null.");
+		if (type.isArray()) {
+			return Array.newInstance(type.getComponentType(), DEFAULT_ARRAY_SIZE);
+		} else if (List.class.isAssignableFrom(type)) {
+			return new ArrayList();
+		} else if (Map.class.isAssignableFrom(type)) {
+			return createMap(type, 0, null);
+		} else {
+			return mock(type, extraInterfaces);
+		}
+	}
+
+	/**
+	 * @param size list size.
+	 * @param count expected number of non-null elements.
+	 * @return list of given size filled with <code>null</code>s;
+	 * 		sparse one when only a small part of it is going to be used.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	static List createList(final int size, final int count) {
+		if (size >= SPARSE_LIST_MIN_SIZE && (long) count * SPARSE_LIST_RATIO < size) {
+			return new SparseList(size, count);
+		}
+		List list = new ArrayList(size);
+		for (int i = 0; i < size; i++) {
+			list.add(null);
+		}
+		return list;
+	}
+
+	/**
+	 * @param list list.
+	 * @param size size list should have at least.
+	 * @return given list padded with <code>null</code>s up to given size, or its copy when it is generated
+	 * 		or cannot grow.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	static List grow(final List list, final int size) {
+		if (list instanceof LazyList || size > list.size() && !(list instanceof ArrayList)) {
+			List copy = createList(Math.max(size, list.size()), size);
+			for (int i = 0; i < list.size(); i++) {
+				copy.set(i, list.get(i));
+			}
+			return copy;
+		} else if (size > list.size()) {
+			list.addAll(Collections.nCopies(size - list.size(), null));
+		}
+		return list;
+	}
+
+	/**
+	 * @param type declared map type.
+	 * @param size expected number of entries.
+	 * @param keyType type common to all keys, <code>null</code> if unknown.
+	 * @return empty map matching declared type, presized for given number of entries.
+	 * @throws Exception .
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	static Map createMap(final Class<?> type, final int size, final Class<?> keyType) throws Exception {
+		int capacity = Math.max(size * 4 / 3 + 1, 16);
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			if (ConcurrentNavigableMap.class.isAssignableFrom(type)) {
+				return new ConcurrentSkipListMap();
+			} else if (SortedMap.class.isAssignableFrom(type)) {
+				return new TreeMap();
+			} else if (keyType != null && keyType.isEnum() && type.isAssignableFrom(EnumMap.class)) {
+				return new EnumMap(keyType);
+			} else if (ConcurrentMap.class.isAssignableFrom(type)) {
+				return new ConcurrentHashMap(capacity);
+			} else if (type.isAssignableFrom(LinkedHashMap.class)) {
+				// keeps entries in settings order
+				return new LinkedHashMap(capacity);
+			}
+			throw new IllegalArgumentException("Unsupported map type " + type);
+		} else if (EnumMap.class.equals(type) && keyType != null && keyType.isEnum()) {
+			return new EnumMap(keyType);
+		} else if (HashMap.class.isAssignableFrom(type) || Hashtable.class.isAssignableFrom(type)
+				|| ConcurrentHashMap.class.isAssignableFrom(type) || WeakHashMap.class.isAssignableFrom(type)
+				|| IdentityHashMap.class.isAssignableFrom(type)) {
+			return (Map) type.getConstructor(int.class).newInstance(capacity);
+		} else if (EnumMap.class.equals(type)) {
+			throw new IllegalArgumentException("EnumMap keys should have enum hint.");
+		}
+		return (Map) type.newInstance();
+	}
+
+	static Object mock(final Class<?> type, final Class<?>... extraInterfaces) {
+		return mock(type, null, extraInterfaces);
+	}
+
+	/**
+	 * @param type type.
+	 * @param defaultAnswer answer of unstubbed invocations, <code>null</code> for Mockito default.
+	 * @param extraInterfaces
+	 * @return mock.
+	 */
+	static Object mock(final Class<?> type, final Answer<?> defaultAnswer, final Class<?>... extraInterfaces) {
+		MockSettings settings = Mockito.withSettings().serializable();
+		if (defaultAnswer != null) {
+			settings.defaultAnswer(defaultAnswer);
+		}
+		if (extraInterfaces != null && extraInterfaces.length > 0) {
+			settings.extraInterfaces(extraInterfaces);
+		}
+		return Mockito.mock(type, settings);
+	}
+
+	/**
+	 * @param str string.
+	 * @param commonPackages common packages.
+	 * @return type corresponding to given string.
+	 * @throws Exception .
+	 */
+	static Class<?> asType(final String str, final String[] commonPackages) throws Exception {
+		for (String pkg : commonPackages) {
+			Object type = type(pkg == null ? str : join(pkg, str));
+			if (type != MISSING) {
+				return (Class<?>) type;
+			}
+		}
+		throw new IllegalArgumentException("Cannot find type " + str);
+	}
+
+	/**
+	 * @param pkg package.
+	 * @param str class name.
+	 * @return class.
+	 * @throws ClassNotFoundException .
+	 */
+	static Class<?> findType(final String pkg, final String str) throws ClassNotFoundException {
+		String name = pkg == null ? str : join(pkg, str);
+		Object type = type(name);
+		if (type == MISSING) {
+			throw new ClassNotFoundException(name);
+		}
+		return (Class<?>) type;
+	}
+
+	/**
+	 * @return class of given name, or {@link #MISSING}; names looked up once.
+	 */
+	private static Object type(final String name) {
+		Object type = TYPES.get(name);
+		if (type == null) {
+			try {
+				type = Class.forName(name);
+			} catch (ClassNotFoundException e) {
+				type = MISSING;
+			}
+			TYPES.putIfAbsent(name, type);
+		}
+		return type;
+	}
+
+	/**
+	 * @param s string.
+	 * @return .
+	 */
+	static String strip$$(final String s) {
+		int i = s.indexOf("$$");
+		return i < 0 ? s : s.substring(0, i);
+	}
+
+	/**
+	 * @param s string.
+	 * @return canonical instance of given string.
+	 */
+	static String intern(final String s) {
+		if (s == null) {
+			return null;
+		}
+		String symbol = SYMBOLS.putIfAbsent(s, s);
+		return symbol == null ? s : symbol;
+	}
+
+	/**
+	 * @param upstream
+	 * @param name
+	 * @return
+	 */
+	static String join(final String upstream, final String name) {
+		return upstream.isEmpty() ? name : upstream + "." + name;
+	}
+
+	/**
+	 * @param a1
+	 * @param a2
+	 * @return
+	 */
+	static String[] join(final String[] a1, final String[] a2) {
+		int a1Size = a1.length;
+		int a2Size = a2.length;
+		String[] a = new String[a1Size + a2Size];
+		System.arraycopy(a1, 0, a, 0, a1Size);
+		System.arraycopy(a2, 0, a, a1Size, a2Size);
+		return a;
+	}
+
+	static <K, V> List<V> getList(final K key, final Map<K, List<V>> map) {
+		List<V> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<V>();
+			map.put(key, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Converter of values to one type.
+	 */
+	interface Converter {
+		/**
+		 * @param value value as string, not <code>null</code>.
+		 * @return converted value.
+		 * @throws Exception .
+		 */
+		Object convert(String value) throws Exception;
+	}
+
+}
@@ -1,135 +1,224 @@
-package mockbuilder;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.List;
-import java.util.Map;
-
-import junit.framework.Assert;
-import junit.framework.AssertionFailedError;
-
-import org.mockito.Mockito;
-
-
-/**
- * Verifier.
- *
- * @author Tomasz Kisiel
- */
-@SuppressWarnings("rawtypes")
-public class Verifier {
-
-	public enum Verification {
-		GETTERS, SETTERS;
-	}
-
-	private final Verification verification;
-
-
-	private Verifier(final Verification verification) {
-		this.verification = verification;
-	}
-
-	private void verify(final Object parentObj, final Element parentElem) throws Exception {
-		for (Element childElem : parentElem.children) {
-			String desc = parentElem.name + "." + childElem.name;
-			Class<?> type = parentObj.getClass();
-			Object childObj = resolver(type).resolve(parentObj, childElem);
-			if (childElem.children.isEmpty()) {
-				switch (this.verification) {
-				case GETTERS:
-					if (childObj == null) {
-						throw new IllegalStateException(desc + " is null.");
-					}
-					Object getterValue = Utils.createValue(childElem.value, childObj.getClass());
-					Assert.assertEquals(getterValue, childObj);
-					break;
-				case SETTERS:
-					Method setter = Utils.setter(type, childElem.name);
-					Object setterValue = Utils.createValue(childElem.value, setter.getParameterTypes()[0]);
-					try {
-						setter.invoke(Mockito.verify(parentObj), setterValue);
-					} catch (InvocationTargetException e) {
-						throw new AssertionFailedError(e.getCause().getMessage());
-					}
-					break;
-				default:
-					throw new IllegalArgumentException();
-				}
-			} else {
-				verify(childObj, childElem);
-			}
-		}
-	}
-
-	private ChildResolver resolver(final Class<?> type) {
-		if (type == null) throw new IllegalArgumentException();
-		return type.isArray() ? new ArrayResolver()
-			: List.class.isAssignableFrom(type) ? new ListResolver()
-			: Map.class.isAssignableFrom(type) ? new MapResolver()
-			: new PlainResolver();
-	}
-
-	/**
-	 * ChildResolver.
-	 */
-	interface ChildResolver {
-		Object resolve(Object rootObj, Element childElem) throws Exception;
-	}
-
-	/**
-	 * ArrayResolver.
-	 */
-	private class ArrayResolver implements ChildResolver {
-		@Override
-		public Object resolve(final Object rootObj, final Element childElem) throws Exception {
-			return ((Object[]) rootObj)[Integer.parseInt(childElem.index)];
-		}
-	}
-
-	/**
-	 * ListResolver.
-	 */
-	private class ListResolver implements ChildResolver {
-		@Override
-		public Object resolve(final Object rootObj, final Element childElem) throws Exception {
-			return ((List) rootObj).get(Integer.parseInt(childElem.index));
-		}
-	}
-
-	/**
-	 * MapResolver.
-	 */
-	private class MapResolver implements ChildResolver {
-		@Override
-		public Object resolve(final Object rootObj, final Element childElem) throws Exception {
-			return ((Map) rootObj).get(childElem.index);
-		}
-	}
-
-	/**
-	 * PlainResolver.
-	 */
-	private class PlainResolver implements ChildResolver {
-		@Override
-		public Object resolve(final Object root, final Element child) throws Exception {
-			try {
-				return Utils.getter(root.getClass(), child.name).invoke(root);
-			} catch (NoSuchMethodException e) {
-				throw new AssertionFailedError("No such method: " + child.key);
-			}
-		}
-	}
-
-	/**
-	 * @param verification verification type.
-	 * @param rootObj root object.
-	 * @param expecteds expecteds.
-	 * @throws Exception .
-	 */
-	public static void verify(final Verification verification, final Object rootObj, final String[] expecteds)
-	throws Exception {
-		new Verifier(verification).verify(rootObj, Parser.parse(rootObj.getClass(), expecteds));
-	}
-
-}
+package mockbuilder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.AssertionFailedError;
+
+import org.mockito.Mockito;
+
+
+/**
+ * Verifier.
+ *
+ * @author Tomasz Kisiel
+ */
+@SuppressWarnings("rawtypes")
+public class Verifier {
+
+	public enum Verification {
+		GETTERS, SETTERS;
+	}
+
+	private final Verification verification;
+
+	private final Map<String, Object> aliases = new HashMap<String, Object>();
+
+	private final List<Reference> references = new ArrayList<Reference>();
+
+
+	private Verifier(final Verification verification) {
+		this.verification = verification;
+	}
+
+	private void verify(final Element rootElem, final Object rootObj) throws Exception {
+		if (rootElem.alias != null) {
+			this.aliases.put(rootElem.alias, rootObj);
+		}
+		verify(rootObj, rootElem);
+		for (Reference reference : this.references) {
+			Assert.assertTrue(reference.desc + " refers to unknown alias @" + reference.alias,
+				this.aliases.containsKey(reference.alias));
+			Assert.assertSame(reference.desc + " is not @" + reference.alias,
+				this.aliases.get(reference.alias), reference.obj);
+		}
+	}
+
+	/**
+	 * Verifies whole subtree of given element, keeping nested objects to verify on explicit stack
+	 * instead of call stack, so that depth of the tree is limited by heap only.
+	 */
+	private void verify(final Object rootObj, final Element rootElem) throws Exception {
+		Deque<Nested> stack = new ArrayDeque<Nested>();
+		stack.push(new Nested(rootObj, rootElem));
+		List<Nested> nested = new ArrayList<Nested>();
+		while (!stack.isEmpty()) {
+			Nested parent = stack.pop();
+			for (Element childElem : parent.elem.children) {
+				if (childElem.isRange()) {
+					int last = childElem.to >= 0 ? childElem.to : size(parent.obj) - 1;
+					for (int i = childElem.from; i <= last; i++) {
+						verify(parent.obj, parent.elem, childElem, i, nested);
+					}
+				} else {
+					verify(parent.obj, parent.elem, childElem, -1, nested);
+				}
+			}
+			// keep verification order of children
+			for (int i = nested.size() - 1; i >= 0; i--) {
+				stack.push(nested.get(i));
+			}
+			nested.clear();
+		}
+	}
+
+	private void verify(final Object parentObj, final Element parentElem, final Element childElem,
+			final int position, final List<Nested> nested) throws Exception {
+		String desc = parentElem.name + "." + childElem.name;
+		Class<?> type = parentObj.getClass();
+		Object childObj = resolver(type).resolve(parentObj, childElem, position);
+		if (childElem.alias != null) {
+			this.aliases.put(childElem.alias, childObj);
+		}
+		if (childElem.reference != null) {
+			this.references.add(new Reference(childElem.reference, childObj, desc));
+		} else if (childElem.children.isEmpty()) {
+			switch (this.verification) {
+			case GETTERS:
+				if (childObj == null) {
+					throw new IllegalStateException(desc + " is null.");
+				}
+				Object getterValue = Utils.createValue(childElem.value, childObj.getClass());
+				Assert.assertEquals(getterValue, childObj);
+				break;
+			case SETTERS:
+				Method setter = Utils.setter(type, childElem.name);
+				Object setterValue = Utils.createValue(childElem.value, setter.getParameterTypes()[0]);
+				try {
+					setter.invoke(Mockito.verify(parentObj), setterValue);
+				} catch (InvocationTargetException e) {
+					throw new AssertionFailedError(e.getCause().getMessage());
+				}
+				break;
+			default:
+				throw new IllegalArgumentException();
+			}
+		} else {
+			nested.add(new Nested(childObj, childElem));
+		}
+	}
+
+	private int size(final Object collection) {
+		return collection.getClass().isArray() ? ((Object[]) collection).length : ((List) collection).size();
+	}
+
+	private ChildResolver resolver(final Class<?> type) {
+		if (type == null) throw new IllegalArgumentException();
+		return type.isArray() ? new ArrayResolver()
+			: List.class.isAssignableFrom(type) ? new ListResolver()
+			: Map.class.isAssignableFrom(type) ? new MapResolver()
+			: new PlainResolver();
+	}
+
+	/**
+	 * ChildResolver.
+	 */
+	interface ChildResolver {
+		/**
+		 * @param position index within range for range elements, -1 otherwise.
+		 */
+		Object resolve(Object rootObj, Element childElem, int position) throws Exception;
+	}
+
+	/**
+	 * ArrayResolver.
+	 */
+	private class ArrayResolver implements ChildResolver {
+		@Override
+		public Object resolve(final Object rootObj, final Element childElem, final int position)
+		throws Exception {
+			return ((Object[]) rootObj)[position < 0 ? Integer.parseInt(childElem.index) : position];
+		}
+	}
+
+	/**
+	 * ListResolver.
+	 */
+	private class ListResolver implements ChildResolver {
+		@Override
+		public Object resolve(final Object rootObj, final Element childElem, final int position)
+		throws Exception {
+			return ((List) rootObj).get(position < 0 ? Integer.parseInt(childElem.index) : position);
+		}
+	}
+
+	/**
+	 * MapResolver.
+	 */
+	private class MapResolver implements ChildResolver {
+		@Override
+		public Object resolve(final Object rootObj, final Element childElem, final int position)
+		throws Exception {
+			return ((Map) rootObj).get(childElem.index);
+		}
+	}
+
+	/**
+	 * PlainResolver.
+	 */
+	private class PlainResolver implements ChildResolver {
+		@Override
+		public Object resolve(final Object root, final Element child, final int position) throws Exception {
+			try {
+				return Utils.getter(root.getClass(), child.name).invoke(root);
+			} catch (NoSuchMethodException e) {
+				throw new AssertionFailedError("No such method: " + child.key());
+			}
+		}
+	}
+
+	/**
+	 * Nested.
+	 */
+	private static final class Nested {
+		final Object obj;
+		final Element elem;
+		Nested(final Object obj, final Element elem) {
+			this.obj = obj;
+			this.elem = elem;
+		}
+	}
+
+	/**
+	 * Reference.
+	 */
+	private static final class Reference {
+		final String alias;
+		final Object obj;
+		final String desc;
+		Reference(final String alias, final Object obj, final String desc) {
+			this.alias = alias;
+			this.obj = obj;
+			this.desc = desc;
+		}
+	}
+
+	/**
+	 * @param verification verification type.
+	 * @param rootObj root object.
+	 * @param expecteds expecteds.
+	 * @throws Exception .
+	 */
+	public static void verify(final Verification verification, final Object rootObj, final String[] expecteds)
+	throws Exception {
+		new Verifier(verification).verify(Parser.parse(rootObj.getClass(), expecteds), rootObj);
+	}
+
+}
@@ -1,9 +1,9 @@
-package mockbuilder;
-
-import javax.lang.model.type.ArrayType;
-
-interface A {
-	B getB();
-	B[] getBs();
-	ArrayType[] getAts();
-}
+package mockbuilder;
+
+import javax.lang.model.type.ArrayType;
+
+interface A {
+	B getB();
+	B[] getBs();
+	ArrayType[] getAts();
+}
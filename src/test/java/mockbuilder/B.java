@@ -1,13 +1,17 @@
-package mockbuilder;
-
-import java.util.List;
-import java.util.Map;
-
-interface B {
-	C getC();
-	C[] getCa();
-	List<C> getCl();
-	Map<String, C> getCmap();
-	Map<Long, C> getCmapLong();
-	E getE();
-}
+package mockbuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+interface B {
+	C getC();
+	C[] getCa();
+	List<C> getCl();
+	Map<String, C> getCmap();
+	Map<Long, C> getCmapLong();
+	SortedMap<String, C> getCmapSorted();
+	Map<E, C> getCmapEnum();
+	E getE();
+	List<?> getAnyList();
+}
@@ -1,24 +1,28 @@
-package mockbuilder;
-
-interface C {
-	byte getByte();
-	Byte getByteO();
-	short getShort();
-	Short getShortO();
-	int getInt();
-	Integer getIntO();
-	void setInt(int i);
-	long getLong();
-	Long getLongO();
-	void setLong(long l);
-	float getFloat();
-	Float getFloatO();
-	double getDouble();
-	Double getDoubleO();
-	char getChar();
-	Character getCharO();
-	void setChar(char c);
-	String getString();
-	void setString(String string);
-	Object getO();
-}
+package mockbuilder;
+
+interface C {
+	byte getByte();
+	Byte getByteO();
+	short getShort();
+	Short getShortO();
+	int getInt();
+	Integer getIntO();
+	void setInt(int i);
+	long getLong();
+	Long getLongO();
+	void setLong(long l);
+	float getFloat();
+	Float getFloatO();
+	double getDouble();
+	Double getDoubleO();
+	char getChar();
+	Character getCharO();
+	void setChar(char c);
+	String getString();
+	void setString(String string);
+	String getURL();
+	void setURL(String url);
+	Object getO();
+	B getParent();
+	C getNext();
+}
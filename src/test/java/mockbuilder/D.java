@@ -0,0 +1,45 @@
+package mockbuilder;
+
+import java.util.List;
+
+class D {
+	private int id;
+	private String name;
+	private long version;
+	private D next;
+	private C c;
+	private List<D> ds;
+	public int getId() {
+		return this.id;
+	}
+	public void setId(final int id) {
+		this.id = id;
+	}
+	public String getName() {
+		return this.name;
+	}
+	public void setName(final String name) {
+		this.name = name;
+	}
+	public long getVersion() {
+		return this.version;
+	}
+	public D getNext() {
+		return this.next;
+	}
+	public void setNext(final D next) {
+		this.next = next;
+	}
+	public C getC() {
+		return this.c;
+	}
+	public void setC(final C c) {
+		this.c = c;
+	}
+	public List<D> getDs() {
+		return this.ds;
+	}
+	public void setDs(final List<D> ds) {
+		this.ds = ds;
+	}
+}
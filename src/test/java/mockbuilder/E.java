@@ -1,5 +1,5 @@
-package mockbuilder;
-
-enum E {
-	EV1
-}
+package mockbuilder;
+
+enum E {
+	EV1
+}
@@ -0,0 +1,222 @@
+package mockbuilder;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Tomasz Kisiel
+ */
+public class FixtureProcessorTest {
+
+	/** names of compilation units followed by their sources. */
+	private static final String[] TYPES = new String[] {
+		"Order", "package fixtures;\n"
+			+ "public interface Order {\n"
+			+ "	Customer getCustomer();\n"
+			+ "	Line[] getLines();\n"
+			+ "	java.util.List<Line> getExtras();\n"
+			+ "	java.util.Map<Status, Line> getByStatus();\n"
+			+ "	Status getStatus();\n"
+			+ "	long getId();\n"
+			+ "}\n",
+		"Customer", "package fixtures;\n"
+			+ "public interface Customer {\n"
+			+ "	String getName();\n"
+			+ "	Order getLast();\n"
+			+ "}\n",
+		"Line", "package fixtures;\n"
+			+ "public interface Line {\n"
+			+ "	int getQuantity();\n"
+			+ "	java.math.BigDecimal getPrice();\n"
+			+ "	String getCode();\n"
+			+ "}\n",
+		"Status", "package fixtures;\n"
+			+ "public enum Status { NEW, PAID }\n",
+	};
+
+	/** directories of compiled classes, removed after each test. */
+	private final List<File> dirs = new ArrayList<File>();
+
+	@After
+	public void tearDown() {
+		for (File dir : this.dirs) {
+			delete(dir);
+		}
+	}
+
+	private static void delete(final File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			delete(files[i]);
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testGenerate() throws Exception {
+		// Given
+		String fixtures =
+			"package fixtures;\n"
+			+ "@mockbuilder.Fixtures({\n"
+			+ "	@mockbuilder.Fixture(name = \"order\", type = Order.class, settings = {\n"
+			+ "		\"@root = \",\n"
+			+ "		\"id = 7\",\n"
+			+ "		\"status = PAID\",\n"
+			+ "		\"customer.name = Smith\",\n"
+			+ "		\"customer.name = Jones\",\n"
+			+ "		\"customer.last = @root\",\n"
+			+ "		\"lines[0..2].quantity = 1${i}\",\n"
+			+ "		\"lines[1].price = 2.5\",\n"
+			+ "		\"extras[1].code = X\",\n"
+			+ "		\"byStatus[NEW<fixtures.Status>]<fixtures.Line>.quantity = 3\",\n"
+			+ "	}),\n"
+			+ "	@mockbuilder.Fixture(name = \"empty\", type = Order.class, settings = \"id = 1\"),\n"
+			+ "})\n"
+			+ "class Samples {\n"
+			+ "}\n";
+
+		// When
+		ClassLoader loader = compile(new ArrayList<String>(), "fixtures", null, "Samples", fixtures);
+
+		// Then
+		Class<?> samples = loader.loadClass("fixtures.SamplesFixtures");
+		Object order = samples.getMethod("order").invoke(null);
+		Assert.assertEquals(7L, get(order, "id"));
+		Assert.assertEquals("PAID", get(order, "status").toString());
+		Object customer = get(order, "customer");
+		Assert.assertEquals("Smith", get(customer, "name"));
+		Assert.assertEquals("Jones", get(customer, "name"));
+		Assert.assertSame(order, get(customer, "last"));
+		Object[] lines = (Object[]) get(order, "lines");
+		Assert.assertEquals(10, lines.length);
+		Assert.assertEquals(12, get(lines[2], "quantity"));
+		Assert.assertEquals("2.5", get(lines[1], "price").toString());
+		Assert.assertNull(lines[3]);
+		List<?> extras = (List<?>) get(order, "extras");
+		Assert.assertEquals(2, extras.size());
+		Assert.assertEquals("X", get(extras.get(1), "code"));
+		Object byStatus = get(order, "byStatus");
+		Assert.assertEquals("{NEW=3}", byStatus.toString().replaceAll("=[^}]*", "=3"));
+		Assert.assertEquals(1L, get(samples.getMethod("empty").invoke(null), "id"));
+	}
+
+	@Test
+	public void testInvalidSettings() throws Exception {
+		// Given
+		String fixtures =
+			"package fixtures;\n"
+			+ "@mockbuilder.Fixture(name = \"order\", type = Order.class, settings = {\n"
+			+ "	\"lines[0].quantity = 1\",\n"
+			+ "	\"customer.nickname = Smith\",\n"
+			+ "})\n"
+			+ "class Samples {\n"
+			+ "}\n";
+		List<String> errors = new ArrayList<String>();
+
+		// When
+		ClassLoader loader = compile(errors, "fixtures", null, "Samples", fixtures);
+
+		// Then
+		Assert.assertNull(loader);
+		Assert.assertEquals(1, errors.size());
+		Assert.assertTrue(errors.get(0), errors.get(0).contains("getter of nickname"));
+	}
+
+	@Test
+	public void testGenerateFromClasses() throws Exception {
+		// Given
+		// proxies of types of the same name loaded by other loader are cached already
+		URLClassLoader types = compile(new ArrayList<String>(), "generated", null);
+		Class<?> type = types.loadClass("generated.Order");
+
+		// When
+		String source = FixtureGenerator.generate("generated.Fixtures", "order", type, new String[] {
+			"customer.name = John\r\n\tSmith\u00019\u00e9",
+			"lines[*].quantity = ${i}",
+			"byStatus[PAID].price = 1.5",
+		}, new String[] {"generated"});
+
+		// Then
+		Object order = compile(new ArrayList<String>(), "generated", types, "Fixtures", source)
+			.loadClass("generated.Fixtures").getMethod("order").invoke(null);
+		Assert.assertEquals("John\r\n\tSmith\u00019\u00e9", get(get(order, "customer"), "name"));
+		Object[] lines = (Object[]) get(order, "lines");
+		Assert.assertEquals(9, get(lines[9], "quantity"));
+		Assert.assertEquals("1.5", get(((Map<?, ?>) get(order, "byStatus")).values().iterator().next(), "price")
+			.toString());
+	}
+
+	private static Object get(final Object obj, final String property) throws Exception {
+		return Utils.getter(obj.getClass(), property).invoke(obj);
+	}
+
+	/**
+	 * @param errors errors of failed compilation.
+	 * @param pkg package of compilation units.
+	 * @param parent loader of classes compiled before, <code>null</code> to compile {@link #TYPES} too.
+	 * @param namesAndSources names of compilation units followed by their sources.
+	 * @return loader of compiled classes, <code>null</code> when compilation failed.
+	 */
+	private URLClassLoader compile(final List<String> errors, final String pkg, final URLClassLoader parent,
+			final String... namesAndSources) throws Exception {
+		List<String> units = new ArrayList<String>();
+		for (int i = 0; parent == null && i < TYPES.length; i++) {
+			units.add(i % 2 == 0 ? TYPES[i] : TYPES[i].replace("package fixtures;", "package " + pkg + ";"));
+		}
+		units.addAll(Arrays.asList(namesAndSources));
+		String classPath = System.getProperty("java.class.path");
+		if (parent != null) {
+			classPath += File.pathSeparator + new File(parent.getURLs()[0].toURI()).getPath();
+		}
+		File dir = File.createTempFile("fixtures", "");
+		dir.delete();
+		dir.mkdirs();
+		this.dirs.add(dir);
+		List<JavaFileObject> files = new ArrayList<JavaFileObject>();
+		for (int i = 0; i < units.size(); i += 2) {
+			final String content = units.get(i + 1);
+			files.add(new SimpleJavaFileObject(URI.create("string:///" + pkg + "/" + units.get(i) + ".java"),
+					JavaFileObject.Kind.SOURCE) {
+				@Override
+				public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+					return content;
+				}
+			});
+		}
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		CompilationTask task = compiler.getTask(null, null, diagnostics, Arrays.asList(
+			"-d", dir.getPath(), "-s", dir.getPath(), "-cp", classPath), null, files);
+		task.setProcessors(Arrays.asList(new FixtureProcessor()));
+		if (!task.call()) {
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+				if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+					errors.add(diagnostic.getMessage(null));
+				}
+			}
+			return null;
+		}
+		return new URLClassLoader(new URL[] { dir.toURI().toURL() },
+			parent != null ? parent : FixtureProcessorTest.class.getClassLoader());
+	}
+
+}
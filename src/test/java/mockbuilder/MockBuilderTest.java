@@ -1,221 +1,1054 @@
-package mockbuilder;
-
-import javax.lang.model.type.ArrayType;
-import javax.lang.model.type.TypeKind;
-import javax.lang.model.type.TypeMirror;
-
-import junit.framework.Assert;
-
-import org.junit.Test;
-
-/**
- * @author Tomasz Kisiel
- */
-public class MockBuilderTest {
-
-	@Test
-	public void testBuild() throws Exception {
-		// When
-		A mock = MockBuilder.<A>build(A.class, new String[] {
-			"ats[0]<ArrayType>.componentType.kind = INT"
-		}, new String[] {
-			"javax.lang.model.type"
-		});
-
-		// Then
-		Assert.assertEquals(TypeKind.INT, mock.getAts()[0].getComponentType().getKind());
-	}
-
-	@Test
-	public void testBasicNesting() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.c.int = 456",
-			"b.c.string = 654",
-			"b.cmap[KEY]<mockbuilder.C>.int = 555",
-		});
-
-		Assert.assertEquals(456, a.getB().getC().getInt());
-		Assert.assertEquals("654", a.getB().getC().getString());
-		Assert.assertEquals(555, a.getB().getCmap().get("KEY").getInt());
-	}
-
-	@Test
-	public void testBasicTypes() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.c.byte = 11",
-			"b.c.byteO = 12",
-			"b.c.short = 111",
-			"b.c.shortO = ",
-			"b.c.int = 1111",
-			"b.c.intO = 1112",
-			"b.c.long = 11111",
-			"b.c.longO = null",
-			"b.c.float = 2.2",
-			"b.c.floatO = 2.3",
-			"b.c.double = 22.22",
-			"b.c.doubleO",
-			"b.c.char = X",
-			"b.c.charO = Y",
-			"b.c.string = yo",
-		});
-
-		C c = a.getB().getC();
-		Assert.assertEquals(11, c.getByte());
-		Assert.assertEquals(12, c.getByteO().intValue());
-		Assert.assertEquals(111, c.getShort());
-		Assert.assertEquals(null, c.getShortO());
-		Assert.assertEquals(1111, c.getInt());
-		Assert.assertEquals(1112, c.getIntO().intValue());
-		Assert.assertEquals(11111, c.getLong());
-		Assert.assertEquals(null, c.getLongO());
-		Assert.assertEquals(2.2f, c.getFloat());
-		Assert.assertEquals(2.3f, c.getFloatO().floatValue());
-		Assert.assertEquals(22.22, c.getDouble());
-		Assert.assertEquals(null, c.getDoubleO());
-		Assert.assertEquals('X', c.getChar());
-		Assert.assertEquals('Y', c.getCharO().charValue());
-		Assert.assertEquals("yo", c.getString());
-	}
-
-	@Test
-	public void testValueHint() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.c.o = <mockbuilder.A>",
-		});
-
-		Object o = a.getB().getC().getO();
-		Assert.assertNotNull(o);
-		Assert.assertTrue(A.class.isAssignableFrom(o.getClass()));
-	}
-
-	@Test
-	public void testArray() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.ca[0].int = 100",
-			"b.ca[1].int = 101",
-			"b.ca[1].int = 102",
-		});
-
-		C[] ca = a.getB().getCa();
-		Assert.assertEquals(100, ca[0].getInt());
-		Assert.assertEquals(101, ca[1].getInt());
-		Assert.assertEquals(102, ca[1].getInt());
-	}
-
-	@Test
-	public void testArray2() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"ats[0].componentType.kind = INT",
-			"ats[1].componentType.kind = LONG",
-			"ats[1].componentType = *",
-			"ats[1].componentType.kind = BYTE",
-		});
-
-		Assert.assertEquals(TypeKind.INT, a.getAts()[0].getComponentType().getKind());
-		ArrayType ats1 = a.getAts()[1];
-		TypeMirror ct1 = ats1.getComponentType();
-		TypeMirror ct2 = ats1.getComponentType();
-		Assert.assertEquals(TypeKind.LONG, ct1.getKind());
-		Assert.assertEquals(TypeKind.LONG, ct1.getKind());
-		Assert.assertEquals(TypeKind.BYTE, ct2.getKind());
-		Assert.assertEquals(TypeKind.BYTE, ct2.getKind());
-	}
-
-	@Test
-	public void testEnum() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.e = EV1",
-		});
-
-		Assert.assertEquals(E.EV1, a.getB().getE());
-	}
-
-	@Test
-	public void testList() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.cl[0]<mockbuilder.C>.byte = 6",
-			"b.cl[1]<mockbuilder.C>.byte = 7",
-		});
-
-		Assert.assertEquals(6, a.getB().getCl().get(0).getByte());
-		Assert.assertEquals(7, a.getB().getCl().get(1).getByte());
-	}
-
-	@Test(expected = IllegalArgumentException.class)
-	public void testListNoHint() throws Exception {
-		MockBuilder.<A>build(A.class, new String[] {
-			"b.cl[0].int = 654",
-		});
-	}
-
-	@Test
-	public void testMap() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.cmapLong[666<Long>]<mockbuilder.C>.byte = 6",
-		});
-		Assert.assertEquals(6, a.getB().getCmapLong().get(666L).getByte());
-	}
-
-	@Test(expected = IllegalArgumentException.class)
-	public void testMapNoHint() throws Exception {
-		MockBuilder.<A>build(A.class, new String[] {
-			"b.cmap[KEY].int = 654",
-		});
-	}
-
-	@Test(expected = ClassCastException.class)
-	public void testMapNoKeyHint() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.cmapLong[666]<mockbuilder.C>.byte = 6",
-		});
-		a.getB().getCmapLong().keySet().iterator().next().getClass();
-	}
-
-	@Test
-	public void testChar() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.c.char = ",
-			"b.c.charO = ",
-		});
-
-		Assert.assertEquals(' ', a.getB().getC().getChar());
-		Assert.assertEquals(null, a.getB().getC().getCharO());
-	}
-
-	@Test
-	public void testSubsequentInvocations() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.c.char = A",
-			"b.c.char = B",
-			"b.c.char = B",
-			"b.c.char = C",
-		});
-
-		Assert.assertEquals('A', a.getB().getC().getChar());
-		Assert.assertEquals('B', a.getB().getC().getChar());
-		Assert.assertEquals('B', a.getB().getC().getChar());
-		Assert.assertEquals('C', a.getB().getC().getChar());
-	}
-
-	@Test
-	public void testSubsequentInvocationsWithResets() throws Exception {
-		A a = MockBuilder.<A>build(A.class, new String[] {
-			"b.c.char = A",
-			"b.c.char = B",
-			"b.c = *",
-			"b.c.char = C",
-			"b.c.char = D",
-		});
-
-		C c1 = a.getB().getC();
-		C c2 = a.getB().getC();
-		Assert.assertEquals('A', c1.getChar());
-		Assert.assertEquals('B', c1.getChar());
-		Assert.assertEquals('B', c1.getChar());
-		Assert.assertEquals('C', c2.getChar());
-		Assert.assertEquals('D', c2.getChar());
-		Assert.assertEquals('D', c2.getChar());
-		Assert.assertEquals('D', c2.getChar());
-	}
-
-}
+package mockbuilder;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * @author Tomasz Kisiel
+ */
+public class MockBuilderTest {
+
+	@Test
+	public void testBuild() throws Exception {
+		// When
+		A mock = MockBuilder.<A>build(A.class, new String[] {
+			"ats[0]<ArrayType>.componentType.kind = INT"
+		}, new String[] {
+			"javax.lang.model.type"
+		});
+
+		// Then
+		Assert.assertEquals(TypeKind.INT, mock.getAts()[0].getComponentType().getKind());
+	}
+
+	@Test
+	public void testBasicNesting() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.int = 456",
+			"b.c.string = 654",
+			"b.cmap[KEY]<mockbuilder.C>.int = 555",
+		});
+
+		Assert.assertEquals(456, a.getB().getC().getInt());
+		Assert.assertEquals("654", a.getB().getC().getString());
+		Assert.assertEquals(555, a.getB().getCmap().get("KEY").getInt());
+	}
+
+	@Test
+	public void testBasicTypes() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.byte = 11",
+			"b.c.byteO = 12",
+			"b.c.short = 111",
+			"b.c.shortO = ",
+			"b.c.int = 1111",
+			"b.c.intO = 1112",
+			"b.c.long = 11111",
+			"b.c.longO = null",
+			"b.c.float = 2.2",
+			"b.c.floatO = 2.3",
+			"b.c.double = 22.22",
+			"b.c.doubleO",
+			"b.c.char = X",
+			"b.c.charO = Y",
+			"b.c.string = yo",
+		});
+
+		C c = a.getB().getC();
+		Assert.assertEquals(11, c.getByte());
+		Assert.assertEquals(12, c.getByteO().intValue());
+		Assert.assertEquals(111, c.getShort());
+		Assert.assertEquals(null, c.getShortO());
+		Assert.assertEquals(1111, c.getInt());
+		Assert.assertEquals(1112, c.getIntO().intValue());
+		Assert.assertEquals(11111, c.getLong());
+		Assert.assertEquals(null, c.getLongO());
+		Assert.assertEquals(2.2f, c.getFloat());
+		Assert.assertEquals(2.3f, c.getFloatO().floatValue());
+		Assert.assertEquals(22.22, c.getDouble());
+		Assert.assertEquals(null, c.getDoubleO());
+		Assert.assertEquals('X', c.getChar());
+		Assert.assertEquals('Y', c.getCharO().charValue());
+		Assert.assertEquals("yo", c.getString());
+	}
+
+	@Test
+	public void testValueHint() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.o = <mockbuilder.A>",
+		});
+
+		Object o = a.getB().getC().getO();
+		Assert.assertNotNull(o);
+		Assert.assertTrue(A.class.isAssignableFrom(o.getClass()));
+	}
+
+	@Test
+	public void testArray() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.ca[0].int = 100",
+			"b.ca[1].int = 101",
+			"b.ca[1].int = 102",
+		});
+
+		C[] ca = a.getB().getCa();
+		Assert.assertEquals(100, ca[0].getInt());
+		Assert.assertEquals(101, ca[1].getInt());
+		Assert.assertEquals(102, ca[1].getInt());
+	}
+
+	@Test
+	public void testArray2() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"ats[0].componentType.kind = INT",
+			"ats[1].componentType.kind = LONG",
+			"ats[1].componentType = *",
+			"ats[1].componentType.kind = BYTE",
+		});
+
+		Assert.assertEquals(TypeKind.INT, a.getAts()[0].getComponentType().getKind());
+		ArrayType ats1 = a.getAts()[1];
+		TypeMirror ct1 = ats1.getComponentType();
+		TypeMirror ct2 = ats1.getComponentType();
+		Assert.assertEquals(TypeKind.LONG, ct1.getKind());
+		Assert.assertEquals(TypeKind.LONG, ct1.getKind());
+		Assert.assertEquals(TypeKind.BYTE, ct2.getKind());
+		Assert.assertEquals(TypeKind.BYTE, ct2.getKind());
+	}
+
+	@Test
+	public void testArrayRange() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.ca[0..999].int = 5",
+			"b.ca[500].int = 7",
+		});
+
+		C[] ca = a.getB().getCa();
+		Assert.assertEquals(1000, ca.length);
+		Assert.assertEquals(5, ca[0].getInt());
+		Assert.assertEquals(5, ca[999].getInt());
+		Assert.assertEquals(7, ca[500].getInt());
+		Assert.assertNotSame(ca[0], ca[1]);
+	}
+
+	@Test
+	public void testArrayGenerated() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.ca[0..19].int = ${i}",
+		});
+
+		C[] ca = a.getB().getCa();
+		Assert.assertEquals(20, ca.length);
+		Assert.assertEquals(0, ca[0].getInt());
+		Assert.assertEquals(19, ca[19].getInt());
+	}
+
+	@Test
+	public void testArrayWildcard() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.ca[*].int = 5",
+		});
+
+		C[] ca = a.getB().getCa();
+		Assert.assertEquals(Utils.DEFAULT_ARRAY_SIZE, ca.length);
+		for (C c : ca) {
+			Assert.assertEquals(5, c.getInt());
+		}
+	}
+
+	@Test
+	public void testEnum() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.e = EV1",
+		});
+
+		Assert.assertEquals(E.EV1, a.getB().getE());
+	}
+
+	@Test
+	public void testList() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cl[0]<mockbuilder.C>.byte = 6",
+			"b.cl[1]<mockbuilder.C>.byte = 7",
+		});
+
+		Assert.assertEquals(6, a.getB().getCl().get(0).getByte());
+		Assert.assertEquals(7, a.getB().getCl().get(1).getByte());
+	}
+
+	@Test
+	public void testListSparse() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cl[3]<mockbuilder.C>.byte = 3",
+			"b.cl[1000000]<mockbuilder.C>.byte = 7",
+		});
+
+		List<C> cl = a.getB().getCl();
+		Assert.assertEquals(1000001, cl.size());
+		Assert.assertNull(cl.get(0));
+		Assert.assertEquals(3, cl.get(3).getByte());
+		Assert.assertNull(cl.get(999999));
+		Assert.assertEquals(7, cl.get(1000000).getByte());
+	}
+
+	@Test
+	public void testListWildcard() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cl[*]<mockbuilder.C>.int = 5",
+			"b.cl[2]<mockbuilder.C>.int = 7",
+		});
+
+		List<C> cl = a.getB().getCl();
+		Assert.assertEquals(3, cl.size());
+		Assert.assertEquals(5, cl.get(0).getInt());
+		Assert.assertEquals(5, cl.get(1).getInt());
+		Assert.assertEquals(7, cl.get(2).getInt());
+	}
+
+	@Test
+	public void testListGenerated() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cl[0..9999999]<mockbuilder.C>.int = ${i}",
+			"b.cl[0..9999999]<mockbuilder.C>.string = name${i}",
+		});
+
+		List<C> cl = a.getB().getCl();
+		Assert.assertEquals(10000000, cl.size());
+		Assert.assertEquals(0, cl.get(0).getInt());
+		Assert.assertEquals(1234567, cl.get(1234567).getInt());
+		Assert.assertEquals("name9999999", cl.get(9999999).getString());
+		Assert.assertSame(cl.get(5), cl.get(5));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testListGeneratedReadOnly() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cl[0..9]<mockbuilder.C>.int = ${i}",
+		});
+
+		a.getB().getCl().set(0, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testListNoHint() throws Exception {
+		MockBuilder.<A>build(A.class, new String[] {
+			"b.anyList[0].int = 654",
+		});
+	}
+
+	@Test
+	public void testListInferredType() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cl[0].int = 654",
+		});
+		Assert.assertEquals(654, a.getB().getCl().get(0).getInt());
+		MockBuilder.apply(a, new String[] {"b.cl[1].int = 5"});
+		Assert.assertEquals(5, a.getB().getCl().get(1).getInt());
+	}
+
+	@Test
+	public void testMap() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cmapLong[666<Long>]<mockbuilder.C>.byte = 6",
+		});
+		Assert.assertEquals(6, a.getB().getCmapLong().get(666L).getByte());
+	}
+
+	@Test
+	public void testMapOrder() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cmap[Z]<mockbuilder.C>.byte = 1",
+			"b.cmap[A]<mockbuilder.C>.byte = 2",
+			"b.cmap[M]<mockbuilder.C>.byte = 3",
+		});
+
+		Assert.assertEquals(Arrays.asList("Z", "A", "M"), new ArrayList<String>(a.getB().getCmap().keySet()));
+	}
+
+	@Test
+	public void testMapSorted() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cmapSorted[Z]<mockbuilder.C>.byte = 1",
+			"b.cmapSorted[A]<mockbuilder.C>.byte = 2",
+		});
+
+		SortedMap<String, C> map = a.getB().getCmapSorted();
+		Assert.assertEquals("A", map.firstKey());
+		Assert.assertEquals(1, map.get("Z").getByte());
+	}
+
+	@Test
+	public void testMapEnumKeys() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cmapEnum[EV1<mockbuilder.E>]<mockbuilder.C>.byte = 6",
+		});
+
+		Map<E, C> map = a.getB().getCmapEnum();
+		Assert.assertEquals(EnumMap.class, map.getClass());
+		Assert.assertEquals(6, map.get(E.EV1).getByte());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEnumMapNoHint() throws Exception {
+		MockBuilder.<A>build(A.class, new String[] {
+			"b.cmap<java.util.EnumMap> = *",
+		});
+	}
+
+	@Test
+	public void testMapInferredTypes() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.cmap[KEY].int = 654",
+			"b.cmapLong[666].byte = 6",
+			"b.cmapEnum[EV1].byte = 7",
+		});
+		Assert.assertEquals(654, a.getB().getCmap().get("KEY").getInt());
+		Assert.assertEquals(6, a.getB().getCmapLong().get(666L).getByte());
+		Assert.assertEquals(EnumMap.class, a.getB().getCmapEnum().getClass());
+		Assert.assertEquals(7, a.getB().getCmapEnum().get(E.EV1).getByte());
+	}
+
+	@Test
+	public void testAliases() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.ca[0] = @c1",
+			"@c1 = b.c",
+			"@b = b",
+			"b.c.int = 456",
+			"b.c.parent = @b",
+			"b.cmap[KEY] = @c1",
+			"b.cl[1] = @c1",
+		});
+
+		B b = a.getB();
+		C c = b.getC();
+		Assert.assertEquals(456, c.getInt());
+		Assert.assertSame(c, b.getCa()[0]);
+		Assert.assertSame(c, b.getCmap().get("KEY"));
+		Assert.assertSame(c, b.getCl().get(1));
+		Assert.assertSame(b, c.getParent());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAliasUnknownTarget() throws Exception {
+		MockBuilder.<A>build(A.class, new String[] {
+			"@c1 = b.cc",
+			"b.c.int = 456",
+		});
+	}
+
+	@Test
+	public void testDeduplicate() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.ca[0..99].int = 5",
+			"b.ca[100].int = 5",
+			"b.ca[101].int = 6",
+			"b.ca[102].char = X",
+			"b.ca[102].char = Y",
+			"b.ca[103].char = X",
+			"b.ca[103].char = Y",
+			"b.c.int = 5",
+		}, EnumSet.of(MockBuilder.Mode.DEDUPLICATE), new String[0]);
+
+		C[] ca = a.getB().getCa();
+		Assert.assertSame(ca[0], ca[99]);
+		Assert.assertSame(ca[0], ca[100]);
+		Assert.assertSame(ca[0], a.getB().getC());
+		Assert.assertNotSame(ca[0], ca[101]);
+		Assert.assertEquals(6, ca[101].getInt());
+		Assert.assertNotSame(ca[102], ca[103]);
+		Assert.assertEquals('X', ca[103].getChar());
+		Assert.assertEquals('Y', ca[103].getChar());
+	}
+
+	@Test
+	public void testDeepNesting() throws Exception {
+		StringBuilder path = new StringBuilder("b.c");
+		for (int i = 0; i < 5000; i++) {
+			path.append(".next");
+		}
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			path + ".int = 7",
+		});
+
+		C c = a.getB().getC();
+		for (int i = 0; i < 5000; i++) {
+			c = c.getNext();
+		}
+		Assert.assertEquals(7, c.getInt());
+	}
+
+	@Test
+	public void testChar() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.char = ",
+			"b.c.charO = ",
+		});
+
+		Assert.assertEquals(' ', a.getB().getC().getChar());
+		Assert.assertEquals(null, a.getB().getC().getCharO());
+	}
+
+	@Test
+	public void testSubsequentInvocations() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.char = A",
+			"b.c.char = B",
+			"b.c.char = B",
+			"b.c.char = C",
+		});
+
+		Assert.assertEquals('A', a.getB().getC().getChar());
+		Assert.assertEquals('B', a.getB().getC().getChar());
+		Assert.assertEquals('B', a.getB().getC().getChar());
+		Assert.assertEquals('C', a.getB().getC().getChar());
+	}
+
+	@Test
+	public void testSubsequentInvocationsWithResets() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.char = A",
+			"b.c.char = B",
+			"b.c = *",
+			"b.c.char = C",
+			"b.c.char = D",
+		});
+
+		C c1 = a.getB().getC();
+		C c2 = a.getB().getC();
+		Assert.assertEquals('A', c1.getChar());
+		Assert.assertEquals('B', c1.getChar());
+		Assert.assertEquals('B', c1.getChar());
+		Assert.assertEquals('C', c2.getChar());
+		Assert.assertEquals('D', c2.getChar());
+		Assert.assertEquals('D', c2.getChar());
+		Assert.assertEquals('D', c2.getChar());
+	}
+
+	@Test
+	public void testApply() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.int = 1",
+			"b.c.string = abc",
+			"b.ca[1].int = 2",
+			"b.cl[0]<mockbuilder.C>.int = 3",
+			"b.cmap[x]<mockbuilder.C>.int = 4",
+		});
+		B b = a.getB();
+		C c = b.getC();
+		C[] ca = b.getCa();
+
+		Assert.assertSame(a, MockBuilder.apply(a, new String[] {
+			"b.c.int = 5",
+			"b.ca[1].string = def",
+			"b.ca[2].int = 6",
+			"b.cl[1]<mockbuilder.C>.int = 7",
+			"b.cmap[y]<mockbuilder.C>.int = 8",
+			"b.e = EV1",
+		}));
+
+		Assert.assertSame(b, a.getB());
+		Assert.assertSame(c, a.getB().getC());
+		Assert.assertEquals(5, c.getInt());
+		Assert.assertEquals("abc", c.getString());
+		Assert.assertSame(ca, b.getCa());
+		Assert.assertEquals(2, ca[1].getInt());
+		Assert.assertEquals("def", ca[1].getString());
+		Assert.assertEquals(6, ca[2].getInt());
+		Assert.assertEquals(3, b.getCl().get(0).getInt());
+		Assert.assertEquals(7, b.getCl().get(1).getInt());
+		Assert.assertEquals(4, b.getCmap().get("x").getInt());
+		Assert.assertEquals(8, b.getCmap().get("y").getInt());
+		Assert.assertEquals(E.EV1, b.getE());
+	}
+
+	@Test
+	public void testApplyResetsAndReferences() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.int = 1",
+			"b.c.string = abc",
+		});
+		C c = a.getB().getC();
+
+		MockBuilder.apply(a, new String[] {
+			"b.c = *",
+			"b.c.int = 2",
+			"@first = b.ca[0]",
+			"b.ca[0].int = 3",
+			"b.cl[0]<mockbuilder.C> = @first",
+		});
+
+		Assert.assertNotSame(c, a.getB().getC());
+		Assert.assertEquals(2, a.getB().getC().getInt());
+		Assert.assertNull(a.getB().getC().getString());
+		Assert.assertSame(a.getB().getCa()[0], a.getB().getCl().get(0));
+	}
+
+	@Test
+	public void testApplyGeneratedList() throws Exception {
+		A a = MockBuilder.<A>build(A.class, new String[] {
+			"b.c.char = A",
+			"b.c.char = B",
+			"b.cl[0..4]<mockbuilder.C>.int = ${i}",
+		});
+
+		// When
+		MockBuilder.apply(a, new String[] {
+			"b.cl[2].string = abc",
+			"b.cl[8]<mockbuilder.C>.int = 3",
+		});
+
+		// Then
+		List<C> cl = a.getB().getCl();
+		Assert.assertEquals(9, cl.size());
+		Assert.assertEquals(2, cl.get(2).getInt());
+		Assert.assertEquals("abc", cl.get(2).getString());
+		Assert.assertNull(cl.get(5));
+		Assert.assertEquals(3, cl.get(8).getInt());
+		Assert.assertEquals('A', a.getB().getC().getChar());
+		Assert.assertEquals('B', a.getB().getC().getChar());
+	}
+
+	@Test
+	public void testTemplate() throws Exception {
+		Template<A> base = Template.of(A.class, new String[] {
+			"b.c.int = 1",
+			"b.c.string = abc",
+			"b.ca[0].int = 2",
+		});
+		Template<A> reset = base.extend("b.c = *", "b.c.int = 3");
+		Template<A> extended = reset.extend("b.ca[1].int = 4");
+
+		A a = base.build();
+		Assert.assertEquals(1, a.getB().getC().getInt());
+		Assert.assertEquals("abc", a.getB().getC().getString());
+		Assert.assertNull(a.getB().getCa()[1]);
+
+		a = extended.build();
+		Assert.assertEquals(1, a.getB().getC().getInt());
+		Assert.assertEquals(3, a.getB().getC().getInt());
+		Assert.assertNull(a.getB().getC().getString());
+		Assert.assertEquals(2, a.getB().getCa()[0].getInt());
+		Assert.assertEquals(4, a.getB().getCa()[1].getInt());
+
+		a = reset.build();
+		Assert.assertNull(a.getB().getCa()[1]);
+		Assert.assertNotSame(a, reset.build());
+	}
+
+	@Test
+	public void testBuildAll() throws Exception {
+		List<A> as = MockBuilder.buildAll(A.class, Arrays.asList(
+			new String[] {
+				"b.c.int = 1",
+				"b.c.string = abc",
+			},
+			new String[] {
+				"b.c.int = 1",
+				"b.c.string = def",
+			},
+			new String[] {
+				"b.c.int = 1",
+			},
+			new String[] {
+				"@c = b.c",
+				"b.c.int = 2",
+				"b.cl[0]<mockbuilder.C> = @c",
+			}));
+
+		Assert.assertEquals(4, as.size());
+		Assert.assertEquals(1, as.get(0).getB().getC().getInt());
+		Assert.assertEquals("abc", as.get(0).getB().getC().getString());
+		Assert.assertEquals(1, as.get(1).getB().getC().getInt());
+		Assert.assertEquals("def", as.get(1).getB().getC().getString());
+		Assert.assertEquals(1, as.get(2).getB().getC().getInt());
+		Assert.assertNull(as.get(2).getB().getC().getString());
+		Assert.assertEquals(2, as.get(3).getB().getC().getInt());
+		Assert.assertSame(as.get(3).getB().getC(), as.get(3).getB().getCl().get(0));
+	}
+
+	@Test
+	public void testBuildAllSharedPrefix() throws Exception {
+		// When
+		List<A> as = MockBuilder.buildAll(A.class, Arrays.asList(
+			new String[] {
+				"b.anyList[0]<mockbuilder.C>.int = 1",
+				"b.anyList[1]<mockbuilder.C>.next.int = 2",
+				"b.cmapLong[1].int = 3",
+			},
+			new String[] {
+				"b.anyList[0]<mockbuilder.C>.int = 1",
+				"b.anyList[1]<mockbuilder.B>.c.int = 4",
+				"b.cmapLong[1]<mockbuilder.C>.string = abc",
+			},
+			new String[] {
+				"b.anyList[0]<mockbuilder.C>.int = 1",
+				"b.anyList[1]<java.lang.Integer> = 5",
+			}));
+
+		// Then
+		Assert.assertEquals(1, ((C) as.get(0).getB().getAnyList().get(0)).getInt());
+		Assert.assertEquals(2, ((C) as.get(0).getB().getAnyList().get(1)).getNext().getInt());
+		Assert.assertEquals(3, as.get(0).getB().getCmapLong().get(1L).getInt());
+		Assert.assertEquals(1, ((C) as.get(1).getB().getAnyList().get(0)).getInt());
+		Assert.assertEquals(4, ((B) as.get(1).getB().getAnyList().get(1)).getC().getInt());
+		Assert.assertEquals("abc", as.get(1).getB().getCmapLong().get(1L).getString());
+		Assert.assertEquals(1, ((C) as.get(2).getB().getAnyList().get(0)).getInt());
+		Assert.assertEquals(5, as.get(2).getB().getAnyList().get(1));
+	}
+
+	@Test
+	public void testBuildAllNoVariants() throws Exception {
+		// When
+		List<A> as = MockBuilder.buildAll(A.class, Collections.<String[]>emptyList());
+
+		// Then
+		Assert.assertTrue(as.isEmpty());
+	}
+
+	@Test
+	public void testPreload() throws Exception {
+		// Given
+		List<String[]> variants = Arrays.<String[]>asList(
+			new String[] {
+				"b.c.next.int = 1",
+				"b.cmap[k]<mockbuilder.C>.string = abc",
+			});
+
+		// When
+		MockBuilder.preload(A.class, variants, new String[0]);
+		A a1 = MockBuilder.buildAll(A.class, variants).get(0);
+		A a2 = MockBuilder.buildAll(A.class, variants).get(0);
+
+		// Then
+		Assert.assertEquals(1, a1.getB().getC().getNext().getInt());
+		Assert.assertEquals("abc", a1.getB().getCmap().get("k").getString());
+		Assert.assertNotSame(a1, a2);
+		Assert.assertSame(a1.getClass(), a2.getClass());
+		Assert.assertSame(a1.getB().getClass(), a2.getB().getClass());
+		Assert.assertSame(a1.getB().getC().getNext().getClass(), a2.getB().getCmap().get("k").getClass());
+		try {
+			MockBuilder.preload(A.class, Arrays.<String[]>asList(new String[] {"b.x = 1"}), new String[0]);
+			Assert.fail();
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPopulate() throws Exception {
+		D d = MockBuilder.build(D.class, new String[] {
+			"@d = ",
+			"id = 1",
+			"name = abc",
+			"version = 7",
+			"next.id = 2",
+			"next.next = @d",
+			"c.int = 5",
+			"ds[1]<mockbuilder.D>.name = x",
+			"ds[2]<mockbuilder.D> = *",
+			"ds[3]<mockbuilder.D>.name = y",
+			"ds[3]<mockbuilder.D>.name = z",
+		}, EnumSet.of(MockBuilder.Mode.POPULATE), new String[0]);
+
+		Assert.assertEquals(D.class, d.getClass());
+		Assert.assertEquals(1, d.getId());
+		Assert.assertEquals("abc", d.getName());
+		Assert.assertEquals(7L, d.getVersion());
+		Assert.assertEquals(D.class, d.getNext().getClass());
+		Assert.assertEquals(2, d.getNext().getId());
+		Assert.assertSame(d, d.getNext().getNext());
+		Assert.assertEquals(5, d.getC().getInt());
+		Assert.assertNull(d.getDs().get(0));
+		Assert.assertEquals("x", d.getDs().get(1).getName());
+		Assert.assertEquals(D.class, d.getDs().get(2).getClass());
+		// subsequent invocations need mock
+		Assert.assertNotSame(D.class, d.getDs().get(3).getClass());
+		Assert.assertEquals("y", d.getDs().get(3).getName());
+		Assert.assertEquals("z", d.getDs().get(3).getName());
+
+		MockBuilder.apply(d, new String[] {"name = def", "next.id = 3", "ds[4]<mockbuilder.D>.id = 4"});
+		Assert.assertEquals("def", d.getName());
+		Assert.assertEquals(3, d.getNext().getId());
+		Assert.assertEquals(4, d.getDs().get(4).getId());
+		Assert.assertEquals("x", d.getDs().get(1).getName());
+	}
+
+	@Test
+	public void testStateful() throws Exception {
+		A a = MockBuilder.build(A.class, new String[] {
+			"@c = b.c",
+			"b.c.int = 5",
+			"b.c.string = abc",
+			"b.c.long = 1",
+			"b.c.long = 2",
+			"b.c.next = @c",
+		}, EnumSet.of(MockBuilder.Mode.STATEFUL), new String[0]);
+		C c = a.getB().getC();
+		c.setInt(6);
+		c.setString(null);
+		c.setChar('x');
+
+		Assert.assertEquals(6, c.getInt());
+		Assert.assertNull(c.getString());
+		Assert.assertEquals('x', c.getChar());
+		Assert.assertEquals(1L, c.getLong());
+		Assert.assertEquals(2L, c.getLong());
+		Assert.assertEquals(2L, c.getLong());
+		c.setLong(7L);
+		Assert.assertEquals(7L, c.getLong());
+		Assert.assertEquals(0, c.getShort());
+		Assert.assertSame(c, c.getNext());
+		Verifier.verify(Verifier.Verification.GETTERS, a, new String[] {"b.c.int = 6", "b.c.char = x"});
+
+		MockBuilder.apply(a, new String[] {"b.c.int = 9", "b.c.parent.c.int = 1"});
+		Assert.assertEquals(9, c.getInt());
+		c.setInt(10);
+		Assert.assertEquals(10, c.getInt());
+		c.getParent().getC().setInt(2);
+		Assert.assertEquals(2, c.getParent().getC().getInt());
+	}
+
+	@Test
+	public void testStatefulCapitalisedProperty() throws Exception {
+		// When
+		C c = MockBuilder.build(C.class, new String[] {"URL = http://a"}, EnumSet.of(MockBuilder.Mode.STATEFUL),
+			new String[0]);
+
+		// Then
+		Assert.assertEquals("http://a", c.getURL());
+		c.setURL("http://b");
+		Assert.assertEquals("http://b", c.getURL());
+		MockBuilder.apply(c, new String[] {"URL = http://c"});
+		Assert.assertEquals("http://c", c.getURL());
+	}
+
+	@Test
+	public void testPlan() throws Exception {
+		Plan<A> plan = MockBuilder.of(A.class);
+		plan.alias(plan.on().getB(), "b");
+		plan.set(plan.on().getB().getC().getInt(), 456);
+		plan.set(plan.on().getB().getC().getString(), "abc");
+		plan.set(plan.on().getB().getC().getString(), "def");
+		plan.set(plan.on().getB().getE(), E.EV1);
+		plan.refer(plan.on().getB().getC().getParent(), "b");
+		plan.set(plan.at(plan.on().getB().getCl(), 1, C.class).getLong(), 7L);
+		plan.set(plan.range(plan.on().getB().getCa(), 0, 2, C.class).getChar(), 'x');
+		plan.set(plan.entry(plan.on().getB().getCmapEnum(), E.EV1, C.class).getInt(), 3);
+		plan.reset(plan.on().getB().getC().getNext());
+
+		A a = plan.build();
+		Assert.assertEquals(456, a.getB().getC().getInt());
+		Assert.assertEquals("abc", a.getB().getC().getString());
+		Assert.assertEquals("def", a.getB().getC().getString());
+		Assert.assertEquals(E.EV1, a.getB().getE());
+		Assert.assertSame(a.getB(), a.getB().getC().getParent());
+		Assert.assertNull(a.getB().getCl().get(0));
+		Assert.assertEquals(7L, a.getB().getCl().get(1).getLong());
+		Assert.assertEquals('x', a.getB().getCa()[2].getChar());
+		Assert.assertNull(a.getB().getCa()[3]);
+		Assert.assertEquals(3, a.getB().getCmapEnum().get(E.EV1).getInt());
+		Assert.assertNotNull(a.getB().getC().getNext());
+		// the same tree parser builds
+		Assert.assertEquals(Parser.parse(A.class, new String[] {
+			"@b = b",
+			"b.c.int = 456",
+			"b.c.string = abc",
+			"b.c.string = def",
+			"b.e = EV1",
+			"b.c.parent = @b",
+			"b.cl[1]<mockbuilder.C>.long = 7",
+			"b.ca[0..2]<mockbuilder.C>.char = x",
+			"b.cmapEnum[EV1<mockbuilder.E>]<mockbuilder.C>.int = 3",
+			"b.c.next = *",
+		}), plan.root());
+	}
+
+	@Test
+	public void testPlanLiterals() throws Exception {
+		// Given
+		Plan<A> plan = MockBuilder.of(A.class);
+
+		// When
+		plan.set(plan.entry(plan.on().getB().getCmap(), "a..b", C.class).getString(), "null value");
+		A a = plan.build();
+
+		// Then
+		Assert.assertEquals("null value", a.getB().getCmap().get("a..b").getString());
+		for (String special : new String[] {"null", "*", "n${i}", "a<b>"}) {
+			try {
+				plan.set(plan.on().getB().getC().getString(), special);
+				Assert.fail(special);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testPlanArguments() throws Exception {
+		// Given
+		Plan<A> plan = MockBuilder.of(A.class);
+		B b = plan.on().getB();
+		String string = plan.on().getB().getC().getString();
+		List<C> list = plan.on().getB().getCl();
+
+		// When
+		plan.on().getB().getC().getInt();
+		try {
+			plan.set(string, "abc");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		plan.on().getB().getCl();
+		try {
+			plan.at(list, 0, C.class);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		plan.on().getB().getC();
+		try {
+			plan.reset(b);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// Then
+		Assert.assertSame(b, plan.on().getB());
+		plan.reset(b);
+		Assert.assertNotNull(plan.build().getB());
+	}
+
+	@Test
+	public void testFixtureSet() throws Exception {
+		Map<String, Object> roots = new FixtureSet()
+			.add("a", A.class,
+				"@c = b.c",
+				"b.c.int = 1",
+				"b.c.parent = @b")
+			.add("b", B.class,
+				"@b = ",
+				"c = @c",
+				"cl[0].next = @c")
+			.add("c", C.class)
+			.add("d", C.class, "# nothing")
+			.build();
+
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), new ArrayList<String>(roots.keySet()));
+		A a = (A) roots.get("a");
+		B b = (B) roots.get("b");
+		Assert.assertEquals(1, a.getB().getC().getInt());
+		Assert.assertSame(a.getB().getC(), b.getC());
+		Assert.assertSame(b, a.getB().getC().getParent());
+		Assert.assertSame(b.getC(), b.getCl().get(0).getNext());
+		Assert.assertTrue(roots.get("c") instanceof C);
+		Assert.assertTrue(roots.get("d") instanceof C);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		D d = new D();
+		d.setId(1);
+		d.setName("a = b");
+		D next = new D();
+		next.setId(2);
+		next.setName("n");
+		next.setNext(d);
+		d.setNext(next);
+		d.setDs(Arrays.asList(null, next, new D()));
+		d.setC(MockBuilder.build(C.class, new String[] {"int = 5", "o = x<String>"}, new String[0]));
+
+		StringWriter out = new StringWriter();
+		new Snapshot().write(d, out);
+		String[] settings = out.toString().split("\n");
+
+		Assert.assertEquals(Arrays.asList(
+			"id = 1",
+			"# name skipped, value cannot be written",
+			"version = 0",
+			"c.byte = 0",
+			"c.byteO = 0",
+			"# c.char skipped, value cannot be written",
+			"# c.charO skipped, value cannot be written",
+			"c.double = 0.0",
+			"c.doubleO = 0.0",
+			"c.float = 0.0",
+			"c.floatO = 0.0",
+			"c.int = 5",
+			"c.intO = 0",
+			"c.long = 0",
+			"c.longO = 0",
+			"c.o = x<java.lang.String>",
+			"c.short = 0",
+			"c.shortO = 0",
+			"@o1 = next",
+			"ds[1] = @o1",
+			"ds[2].id = 0",
+			"ds[2].version = 0",
+			"next.id = 2",
+			"next.name = n",
+			"@o2 =",
+			"next.next = @o2",
+			"next.version = 0"
+		), Arrays.asList(settings));
+
+		D built = MockBuilder.build(D.class, settings, EnumSet.of(MockBuilder.Mode.POPULATE), new String[0]);
+		Assert.assertEquals(1, built.getId());
+		Assert.assertNull(built.getName());
+		Assert.assertEquals(5, built.getC().getInt());
+		Assert.assertEquals("x", built.getC().getO());
+		Assert.assertEquals(2, built.getNext().getId());
+		Assert.assertEquals("n", built.getNext().getName());
+		Assert.assertSame(built, built.getNext().getNext());
+		Assert.assertNull(built.getDs().get(0));
+		Assert.assertSame(built.getNext(), built.getDs().get(1));
+		Assert.assertEquals(D.class, built.getDs().get(2).getClass());
+
+		out = new StringWriter();
+		new Snapshot().depth(1).exclude(C.class, List.class).write(d, out);
+		Assert.assertEquals("id = 1\n# name skipped, value cannot be written\nversion = 0\nnext = *\n",
+			out.toString());
+	}
+
+	@Test
+	public void testSnapshotEmptyObjects() throws Exception {
+		// Given
+		D d = new D();
+		d.setDs(new ArrayList<D>());
+		d.setC(MockBuilder.build(C.class, new String[] {"o<mockbuilder.A> = *"}, new String[0]));
+
+		// When
+		StringWriter out = new StringWriter();
+		new Snapshot().write(d, out);
+		String[] settings = out.toString().split("\n");
+
+		// Then
+		Assert.assertTrue(out.toString(), Arrays.asList(settings).containsAll(Arrays.asList(
+			"c.o<mockbuilder.A> = *",
+			"ds = *")));
+		D built = MockBuilder.build(D.class, settings, EnumSet.of(MockBuilder.Mode.POPULATE), new String[0]);
+		Assert.assertTrue(built.getC().getO() instanceof A);
+		Assert.assertTrue(built.getDs().isEmpty());
+	}
+
+	@Test
+	public void testPaths() throws Exception {
+		A a = MockBuilder.build(A.class, new String[] {
+			"b.c.int = 456",
+			"b.cmap[KEY]<mockbuilder.C>.int = 555",
+			"b.cmapEnum[EV1<mockbuilder.E>]<mockbuilder.C>.int = 3",
+			"b.cmapLong[7<Long>]<mockbuilder.C>.string = abc",
+			"b.cl[1]<mockbuilder.C>.long = 7",
+			"b.ca[2]<mockbuilder.C>.char = x",
+		}, EnumSet.of(MockBuilder.Mode.STATEFUL), new String[0]);
+
+		for (int i = 0; i < 2; i++) {
+			Assert.assertEquals(456, (int) Paths.<Integer>get(a, "b.c.int"));
+			Assert.assertEquals(555, (int) Paths.<Integer>get(a, "b.cmap[KEY]<mockbuilder.C>.int"));
+			Assert.assertEquals(3, (int) Paths.<Integer>get(a, "b.cmapEnum[EV1].int"));
+			Assert.assertEquals("abc", Paths.get(a, "b.cmapLong[7].string"));
+			Assert.assertEquals(7L, (long) Paths.<Long>get(a, "b.cl[1].long"));
+			Assert.assertEquals('x', (char) Paths.<Character>get(a, "b.ca[2].char"));
+			Assert.assertSame(a.getB().getCa(), Paths.get(a, "b.ca"));
+			Assert.assertNull(Paths.get(a, "b.cl[0]"));
+		}
+		try {
+			Paths.get(a, "b.cl[0].long");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("b.cl[0] is null.", e.getMessage());
+		}
+
+		Paths.set(a, "b.c.int", 9);
+		Paths.set(a, "b.cmap[OTHER]", a.getB().getC());
+		Paths.set(a, "b.cl[3]", a.getB().getC());
+		Assert.assertEquals(9, a.getB().getC().getInt());
+		Assert.assertSame(a.getB().getC(), a.getB().getCmap().get("OTHER"));
+		Assert.assertSame(a.getB().getC(), a.getB().getCl().get(3));
+
+		D d = MockBuilder.build(D.class, new String[] {"next.id = 2"}, EnumSet.of(MockBuilder.Mode.POPULATE),
+			new String[0]);
+		Paths.set(d, "next.name", "n");
+		Assert.assertEquals("n", d.getNext().getName());
+
+		SortedMap<Long, C> sorted = new TreeMap<Long, C>();
+		sorted.put(7L, a.getB().getC());
+		Paths.set(a, "b.cmapLong", sorted);
+		Assert.assertEquals(9, (int) Paths.<Integer>get(a, "b.cmapLong[7].int"));
+		Assert.assertNull(Paths.get(a, "b.cmapLong[8]"));
+
+		A generated = MockBuilder.build(A.class, new String[] {"b.cl[0..4]<mockbuilder.C>.int = ${i}"});
+		Paths.set(generated, "b.cl[1000]", null);
+		Paths.set(generated, "b.cl[7]", a.getB().getC());
+		Assert.assertEquals(1001, generated.getB().getCl().size());
+		Assert.assertEquals(4, generated.getB().getCl().get(4).getInt());
+		Assert.assertSame(a.getB().getC(), generated.getB().getCl().get(7));
+	}
+
+	@Test
+	public void testConcurrentBuilds() throws Exception {
+		final Template<A> template = Template.of(A.class, new String[] {
+			"@c = b.c",
+			"b.c.long = 1",
+			"b.cl[0..3]<C>.int = 7",
+			"b.cmapEnum[EV1]<C>.next = @c",
+		});
+		int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Integer>> builds = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				builds.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int count = 0;
+						for (int i = 0; i < 50; i++, count++) {
+							String value = "v" + thread + "_" + i % 10;
+							A a = template.build(EnumSet.of(i % 2 == 0 ? MockBuilder.Mode.STATEFUL
+								: MockBuilder.Mode.DEDUPLICATE), new String[] {"mockbuilder"});
+							MockBuilder.apply(a, new String[] {"b.c.string = " + value, "b.c.int = " + i});
+							Verifier.verify(Verifier.Verification.GETTERS, a, new String[] {
+								"b.c.string = " + value,
+								"b.c.int = " + i,
+								"b.cl[3].int = 7",
+							});
+							Assert.assertSame(a.getB().getC(), a.getB().getCmapEnum().get(E.EV1).getNext());
+							Assert.assertEquals(value, Paths.get(a, "b.c.string"));
+						}
+						return count;
+					}
+				}));
+			}
+			for (Future<Integer> build : builds) {
+				Assert.assertEquals(50, (int) build.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
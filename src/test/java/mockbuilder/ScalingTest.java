@@ -0,0 +1,306 @@
+package mockbuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks that parsing, building and verifying settings take time and memory growing linearly with number
+ * of paths, and reports throughput of concurrent builds. Run by <code>mvn test -Pscaling</code>, excluded
+ * from default build.
+ *
+ * @author Tomasz Kisiel
+ */
+public class ScalingTest {
+
+	private static final int[] SIZES = new int[] {10, 1000, 10000, 100000};
+
+	/** sizes from which costs per path are compared, smaller ones are dominated by fixed costs. */
+	private static final int MIN_COMPARED_SIZE = 1000;
+
+	/** allowed growth of time per path between sizes, linear growth being 1. */
+	private static final double TIME_GROWTH = 3.0;
+
+	/** allowed growth of allocated bytes per path between sizes. */
+	private static final double BYTES_GROWTH = 1.5;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/** time each number of threads builds for. */
+	private static final long THROUGHPUT_MILLIS = 2000;
+
+	private static final String[] THROUGHPUT_SETTINGS = new String[] {
+		"b.c.int = 1",
+		"b.c.string = abc",
+		"b.cl[0..9]<mockbuilder.C>.long = 7",
+		"b.cmap[k]<mockbuilder.C>.next.int = 2",
+		"b.e = EV1",
+	};
+
+	private enum Stage {
+		PARSE(10 * 1024), BUILD(32 * 1024), VERIFY(24 * 1024);
+		/** bytes allocated per path allowed. */
+		final long budget;
+		Stage(final long budget) {
+			this.budget = budget;
+		}
+	}
+
+	private enum Shape {
+		/** one chain of getters. */
+		DEEP {
+			@Override
+			String[] settings(final int size) {
+				StringBuilder path = new StringBuilder("b.c");
+				for (int i = 0; i < size; i++) {
+					path.append(".next");
+				}
+				return new String[] {path.append(".int = 1").toString()};
+			}
+		},
+		/** entries of one map. */
+		WIDE {
+			@Override
+			String[] settings(final int size) {
+				String[] settings = new String[size];
+				for (int i = 0; i < size; i++) {
+					settings[i] = "b.cmap[k" + i + "]<mockbuilder.C>.int = " + i;
+				}
+				return settings;
+			}
+		},
+		/** nested objects of list elements. */
+		LISTS {
+			@Override
+			String[] settings(final int size) {
+				String[] settings = new String[size];
+				for (int i = 0; i < size; i++) {
+					settings[i] = "b.cl[" + i + "]<mockbuilder.C>.next.long = " + i;
+				}
+				return settings;
+			}
+		},
+		/** values of list elements, built without creating mocks which would hide cost of list itself. */
+		VALUES {
+			@Override
+			String[] settings(final int size) {
+				String[] settings = new String[size];
+				for (int i = 0; i < size; i++) {
+					settings[i] = "b.anyList[" + i + "]<java.lang.Long> = " + i;
+				}
+				return settings;
+			}
+		},
+		/** populated objects of list elements. */
+		POPULATED {
+			@Override
+			String[] settings(final int size) {
+				String[] settings = new String[size];
+				for (int i = 0; i < size; i++) {
+					settings[i] = "ds[" + i + "]<mockbuilder.D>.id = " + i;
+				}
+				return settings;
+			}
+			@Override
+			Class<?> type() {
+				return D.class;
+			}
+			@Override
+			Set<MockBuilder.Mode> modes() {
+				return EnumSet.of(MockBuilder.Mode.POPULATE);
+			}
+		};
+		/**
+		 * @return settings of given number of paths, or path elements for deep shape.
+		 */
+		abstract String[] settings(int size);
+		Class<?> type() {
+			return A.class;
+		}
+		Set<MockBuilder.Mode> modes() {
+			return EnumSet.noneOf(MockBuilder.Mode.class);
+		}
+	}
+
+	@Test
+	public void testDeep() throws Exception {
+		verifyScaling(Shape.DEEP);
+	}
+
+	@Test
+	public void testWide() throws Exception {
+		verifyScaling(Shape.WIDE);
+	}
+
+	@Test
+	public void testLists() throws Exception {
+		verifyScaling(Shape.LISTS);
+	}
+
+	@Test
+	public void testValues() throws Exception {
+		verifyScaling(Shape.VALUES);
+	}
+
+	@Test
+	public void testPopulated() throws Exception {
+		verifyScaling(Shape.POPULATED);
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		// Given
+		int processors = Runtime.getRuntime().availableProcessors();
+		// warm up
+		throughput(processors);
+
+		// When
+		double single = 0;
+		double best = 0;
+		for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+			double throughput = throughput(threads);
+			System.out.println("ScalingTest: " + Math.round(throughput) + " builds/s on " + threads + " threads");
+			single = threads == 1 ? throughput : single;
+			best = Math.max(best, throughput);
+			if (threads == processors) {
+				break;
+			}
+		}
+
+		// Then
+		// builds sharing locks would not be faster on more threads
+		Assert.assertTrue("Best throughput " + best + " builds/s of " + processors + " processors is not over "
+			+ single + " builds/s of 1 thread", processors == 1 || best > single);
+	}
+
+	private void verifyScaling(final Shape shape) throws Exception {
+		// Given
+		// warm up
+		measure(shape, MIN_COMPARED_SIZE);
+
+		// When
+		long[][][] costs = new long[SIZES.length][][];
+		for (int i = 0; i < SIZES.length; i++) {
+			costs[i] = best(measure(shape, SIZES[i]), measure(shape, SIZES[i]));
+		}
+
+		// Then
+		for (int i = 0; i < SIZES.length; i++) {
+			int size = SIZES[i];
+			if (size < MIN_COMPARED_SIZE) {
+				continue;
+			}
+			for (Stage stage : Stage.values()) {
+				long[] cost = costs[i][stage.ordinal()];
+				if (cost[1] >= 0) {
+					Assert.assertTrue(shape + " " + stage + " of " + size + " paths allocates " + cost[1] / size
+						+ " bytes per path, over budget of " + stage.budget, cost[1] / size <= stage.budget);
+				}
+				if (i > 0 && SIZES[i - 1] >= MIN_COMPARED_SIZE) {
+					long[] before = costs[i - 1][stage.ordinal()];
+					assertLinear(shape + " " + stage + " time", before[0], SIZES[i - 1], cost[0], size, TIME_GROWTH);
+					if (cost[1] >= 0) {
+						assertLinear(shape + " " + stage + " allocation", before[1], SIZES[i - 1], cost[1], size,
+							BYTES_GROWTH);
+					}
+				}
+			}
+		}
+	}
+
+	private static void assertLinear(final String desc, final long before, final int sizeBefore, final long after,
+			final int size, final double growth) {
+		double perPathBefore = Math.max(before, 1) / (double) sizeBefore;
+		double perPath = after / (double) size;
+		Assert.assertTrue(desc + " per path grew from " + perPathBefore + " for " + sizeBefore + " paths to "
+			+ perPath + " for " + size, perPath <= perPathBefore * growth);
+	}
+
+	/**
+	 * @return CPU time in nanoseconds and allocated bytes, -1 if unknown, of each stage.
+	 */
+	private static long[][] measure(final Shape shape, final int size) throws Exception {
+		String[] settings = shape.settings(size);
+		long[][] costs = new long[Stage.values().length][];
+		long[] start = snapshot();
+		Element root = Parser.parse(shape.type(), settings);
+		costs[Stage.PARSE.ordinal()] = since(start);
+		start = snapshot();
+		Object obj = MockBuilder.build(root, shape.modes(), new String[0]);
+		costs[Stage.BUILD.ordinal()] = since(start);
+		start = snapshot();
+		Verifier.verify(Verifier.Verification.GETTERS, obj, settings);
+		costs[Stage.VERIFY.ordinal()] = since(start);
+		return costs;
+	}
+
+	/**
+	 * @return builds per second of given number of threads building concurrently.
+	 */
+	private static double throughput(final int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final long start = System.nanoTime();
+			final long end = start + TimeUnit.MILLISECONDS.toNanos(THROUGHPUT_MILLIS);
+			List<Future<Integer>> builds = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < threads; i++) {
+				builds.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int count = 0;
+						while (System.nanoTime() < end) {
+							A a = MockBuilder.build(A.class, THROUGHPUT_SETTINGS, new String[0]);
+							Assert.assertEquals(1, a.getB().getC().getInt());
+							count++;
+						}
+						return count;
+					}
+				}));
+			}
+			long count = 0;
+			for (Future<Integer> build : builds) {
+				count += build.get();
+			}
+			return count * 1e9 / (System.nanoTime() - start);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static long[][] best(final long[][] costs1, final long[][] costs2) {
+		long[][] best = new long[costs1.length][];
+		for (int i = 0; i < best.length; i++) {
+			best[i] = new long[] {Math.min(costs1[i][0], costs2[i][0]), Math.min(costs1[i][1], costs2[i][1])};
+		}
+		return best;
+	}
+
+	private static long[] snapshot() {
+		long bytes = -1;
+		if (THREADS instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()) {
+			bytes = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(
+				Thread.currentThread().getId());
+		}
+		long time = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+		return new long[] {time, bytes};
+	}
+
+	private static long[] since(final long[] start) {
+		long[] now = snapshot();
+		return new long[] {now[0] - start[0], start[1] < 0 ? -1 : now[1] - start[1]};
+	}
+
+}
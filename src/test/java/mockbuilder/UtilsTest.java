@@ -1,35 +1,100 @@
-package mockbuilder;
-
-import java.math.BigDecimal;
-
-import junit.framework.Assert;
-
-import org.junit.Test;
-
-/**
- * @author Tomasz Kisiel
- */
-public class UtilsTest {
-
-	@Test(expected = IllegalArgumentException.class)
-	public void shouldThrowExceptionWhenTypeForCreateValueIsNull() throws Exception {
-		Utils.createValue(null, null);
-	}
-
-	@Test(expected = IllegalArgumentException.class)
-	public void shouldThrowExceptionWhenNullValueIsGivenForPrimitiveType() throws Exception {
-		Utils.createValue(null, int.class);
-	}
-
-	@Test
-	public void testCreateNullValue() throws Exception {
-		Assert.assertNull(Utils.createValue(null, Object.class));
-		Assert.assertNull(Utils.createValue("null", Object.class));
-	}
-
-	@Test
-	public void testCreateBigDecimalValue() throws Exception {
-		Assert.assertEquals(new BigDecimal(1234), Utils.createValue("1234<BigDecimal>", Object.class));
-	}
-
-}
+package mockbuilder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * @author Tomasz Kisiel
+ */
+public class UtilsTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowExceptionWhenTypeForCreateValueIsNull() throws Exception {
+		Utils.createValue(null, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowExceptionWhenNullValueIsGivenForPrimitiveType() throws Exception {
+		Utils.createValue(null, int.class);
+	}
+
+	@Test
+	public void testCreateNullValue() throws Exception {
+		Assert.assertNull(Utils.createValue(null, Object.class));
+		Assert.assertNull(Utils.createValue("null", Object.class));
+	}
+
+	@Test
+	public void testCreateBigDecimalValue() throws Exception {
+		Assert.assertEquals(new BigDecimal(1234), Utils.createValue("1234<BigDecimal>", Object.class));
+	}
+
+	@Test
+	public void testCreateConvertedValues() throws Exception {
+		Assert.assertEquals(7, Utils.createValue("7", int.class));
+		Assert.assertEquals(7L, Utils.createValue("7", Long.class));
+		Assert.assertEquals('x', Utils.createValue("x", Character.class));
+		Assert.assertEquals(E.EV1, Utils.createValue("EV1", E.class));
+		Assert.assertEquals(new BigInteger("12345678901234567890"), Utils.createValue("12345678901234567890",
+			BigInteger.class));
+		Assert.assertEquals(new Date(1000L), Utils.createValue("1000", Date.class));
+		Assert.assertEquals("abc", Utils.createValue("abc", StringBuilder.class).toString());
+		Assert.assertEquals(3, Utils.createValue("3<Integer>", Object.class));
+		Assert.assertSame(Utils.converter(E.class), Utils.converter(E.class));
+		Assert.assertSame(Utils.NONE, Utils.converter(C.class));
+	}
+
+	@Test
+	public void testCreateInternedValues() throws Exception {
+		Assert.assertSame(Utils.createValue("123456", Long.class), Utils.createValue("123456", long.class));
+		Assert.assertSame(Utils.createValue("1.25", BigDecimal.class), Utils.createValue("1.25<BigDecimal>",
+			Object.class));
+		Assert.assertSame(Utils.createValue(new String("abc"), String.class), Utils.createValue("abc",
+			String.class));
+		Assert.assertNotSame(Utils.createValue("1000", Date.class), Utils.createValue("1000", Date.class));
+		Assert.assertNotSame(Utils.createValue("abc", StringBuilder.class),
+			Utils.createValue("abc", StringBuilder.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowExceptionWhenEnumConstantIsUnknown() throws Exception {
+		Utils.createValue("EV9", E.class);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCreateList() throws Exception {
+		List<Object> list = Utils.createList(3, 3);
+		Assert.assertEquals(ArrayList.class, list.getClass());
+		Assert.assertEquals(Arrays.asList(null, null, null), list);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCreateSparseList() throws Exception {
+		List<Object> list = Utils.createList(5000, 2);
+		Assert.assertEquals(SparseList.class, list.getClass());
+		list.set(4999, "b");
+		list.set(7, "a");
+		list.set(7, "c");
+
+		Assert.assertEquals(5000, list.size());
+		Assert.assertNull(list.get(0));
+		Assert.assertEquals("c", list.get(7));
+		Assert.assertEquals("b", list.get(4999));
+		List<Object> expected = new ArrayList<Object>(Utils.createList(5000, 5000));
+		expected.set(7, "c");
+		expected.set(4999, "b");
+		Assert.assertEquals(expected, new ArrayList<Object>(list));
+		Assert.assertEquals(expected, list);
+	}
+
+}